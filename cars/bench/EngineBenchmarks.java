@@ -0,0 +1,379 @@
+package cars.bench;
+
+import cars.engine.Car;
+import cars.engine.DistanceField;
+import cars.engine.KdTree;
+import cars.engine.Simulation;
+import cars.engine.SpatialGrid;
+import cars.engine.SteeringKernels;
+import cars.engine.TickContext;
+import cars.engine.Vector2;
+import cars.engine.World;
+import cars.student.SteeringUtils;
+import cars.student.StudentCar;
+import cars.student.StudentCarArrive;
+import cars.student.StudentCarFlee;
+import cars.student.StudentCarFollowPath;
+import cars.student.StudentCarMagenta;
+import cars.student.StudentCarMouse;
+import cars.student.StudentCarSeek;
+import cars.student.StudentCarWander;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static cars.engine.Vector2.vec2;
+
+/**
+ * Baseline benchmarks for the engine hot paths.
+ * <p>
+ * Run with: <code>java cars.bench.EngineBenchmarks [filter] [-cars=100,1000] [-density=1,8] [-fork=false]</code>
+ * <ul>
+ * <li>filter: regular expression matched against the benchmark names;</li>
+ * <li>cars: car counts to test, from 100 to 1M by default;</li>
+ * <li>density: average number of cars inside the avoidance radius of each car;</li>
+ * <li>fork: false runs every benchmark in this JVM, instead of one JVM per benchmark. Faster,
+ * but later benchmarks are measured with the JIT profile of the earlier ones.</li>
+ * </ul>
+ * Scores are operations per second, where an operation is one call for one car
+ * (one vector operation, one neighbor query, one car update, one steering calculation).
+ * Allocation is the heap allocated per operation by the benchmark thread.
+ * <p>
+ * The SteeringKernels benchmarks compare the scalar and the SIMD kernels; the SIMD ones only run
+ * with <code>--add-modules jdk.incubator.vector</code>.
+ */
+public final class EngineBenchmarks {
+    private static final int[] DEFAULT_COUNTS = {100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final double[] DEFAULT_DENSITIES = {1, 8};
+    private static final int RADIUS = 75;
+    private static final int NEAREST = 8;
+    private static final double REPULSION = 5000;
+    private static final double SECS = 1.0 / 60.0;
+
+    @FunctionalInterface
+    private interface CarFactory {
+        Car create(Color color, double x, double y);
+    }
+
+    public static void main(String[] args) {
+        var filter = "";
+        var counts = DEFAULT_COUNTS;
+        var densities = DEFAULT_DENSITIES;
+        var mode = Harness.Mode.FORK;
+        for (var arg : args) {
+            if (arg.startsWith("-cars=")) {
+                counts = Arrays.stream(arg.substring(6).split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("-density=")) {
+                densities = Arrays.stream(arg.substring(9).split(",")).mapToDouble(Double::parseDouble).toArray();
+            } else if (arg.equals("-fork=false")) {
+                mode = Harness.Mode.IN_PROCESS;
+            } else if (arg.startsWith("-forked=")) {
+                mode = Harness.Mode.FORKED;
+                filter = arg.substring(8);
+            } else {
+                filter = arg;
+            }
+        }
+
+        final var h = new Harness(filter, mode, EngineBenchmarks.class);
+        vectorBenchmarks(h);
+        for (var count : counts) {
+            for (var density : densities) {
+                worldBenchmarks(h, count, density);
+                kernelBenchmarks(h, count, density);
+                updateBenchmarks(h, count, density);
+                behaviorBenchmarks(h, count, density);
+            }
+        }
+        h.printSink();
+    }
+
+    // ---- Vector2 ----
+
+    private static void vectorBenchmarks(Harness h) {
+        final var a = vec2(3, 4);
+        final var b = vec2(-1, 2);
+        final var t = vec2();
+
+        h.run("Vector2.add(static)", 0, 0, 1, i -> Vector2.add(a, b).x);
+        h.run("Vector2.subtract(static)", 0, 0, 1, i -> Vector2.subtract(a, b).x);
+        h.run("Vector2.multiply(static)", 0, 0, 1, i -> Vector2.multiply(a, 2.0).x);
+        h.run("Vector2.normalize(static)", 0, 0, 1, i -> Vector2.normalize(a).x);
+        h.run("Vector2.truncate(static)", 0, 0, 1, i -> Vector2.truncate(a, 2.0).x);
+        h.run("Vector2.distance(static)", 0, 0, 1, i -> Vector2.distance(a, b));
+
+        h.run("Vector2.add", 0, 0, 1, i -> t.set(a.x, a.y).add(b).x);
+        h.run("Vector2.subtract", 0, 0, 1, i -> t.set(a.x, a.y).subtract(b).x);
+        h.run("Vector2.multiply", 0, 0, 1, i -> t.set(a.x, a.y).multiply(2.0).x);
+        h.run("Vector2.normalize", 0, 0, 1, i -> t.set(a.x, a.y).normalize().x);
+        h.run("Vector2.resize", 0, 0, 1, i -> t.set(a.x, a.y).resize(2.0).x);
+    }
+
+    // ---- World ----
+
+    private static void worldBenchmarks(Harness h, int count, double density) {
+        if (!h.prepare(count, density, "World.getNeighbors()", "World.getNeighbors(radius)",
+            "World.getNeighbors(radius) [no grid]", "World.getAvoidance [per car]", "World.getNearest(k)",
+            "World.getNearest(k) [no tree]", "KdTree.rebuild", "DistanceField.distance")) return;
+
+        final var cars = population(count, density, EngineBenchmarks::idleCar);
+        final var grid = new SpatialGrid(80);
+        grid.rebuild(cars);
+        final var kdTree = new KdTree();
+        kdTree.rebuild(cars);
+
+        final var worlds = worlds(cars, grid, kdTree);
+        final var linearWorlds = worlds(cars, null, null);
+        final var result = new ArrayList<Car>();
+        h.run("World.getNeighbors()", count, density, 1,
+            i -> worlds[i % count].getNeighbors().size());
+        h.run("World.getNeighbors(radius)", count, density, 1,
+            i -> worlds[i % count].getNeighbors(RADIUS).size());
+        h.run("World.getNeighbors(radius) [no grid]", count, density, 1,
+            i -> linearWorlds[i % count].getNeighbors(RADIUS).size());
+        final var force = vec2();
+        h.run("World.getAvoidance [per car]", count, density, 1,
+            i -> worlds[i % count].getAvoidance(RADIUS, REPULSION, force).x);
+        h.run("World.getNearest(k)", count, density, 1,
+            i -> worlds[i % count].getNearest(NEAREST, null, result).size());
+        h.run("World.getNearest(k) [no tree]", count, density, 1,
+            i -> linearWorlds[i % count].getNearest(NEAREST, null, result).size());
+        h.run("KdTree.rebuild", count, density, count, i -> {
+            kdTree.rebuild(cars);
+            return kdTree.size();
+        });
+
+        if (h.accepts("DistanceField.distance")) {
+            // Stretched over the square the cars are in
+            final var walls = DistanceField.of(wallMap());
+            final var side = Math.sqrt(count * Math.PI * RADIUS * RADIUS / density);
+            final var xs = new double[count];
+            final var ys = new double[count];
+            for (var i = 0; i < count; i++) {
+                cars.get(i).getPosition(force);
+                xs[i] = force.x;
+                ys[i] = force.y;
+            }
+            h.run("DistanceField.distance", count, density, 1,
+                i -> walls.distance(xs[i % count], ys[i % count], side, side, force));
+        }
+    }
+
+    /**
+     * A map the size of the window with a grid of lines, like parking spaces.
+     */
+    private static BufferedImage wallMap() {
+        final var image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        final var g = image.createGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(Color.WHITE);
+        for (var x = 40; x < image.getWidth(); x += 120) g.fillRect(x, 0, 6, image.getHeight());
+        for (var y = 40; y < image.getHeight(); y += 180) g.fillRect(0, y, image.getWidth(), 6);
+        g.dispose();
+        return image;
+    }
+
+    // ---- Batch kernels ----
+
+    private static void kernelBenchmarks(Harness h, int count, double density) {
+        final var simd = SteeringKernels.isVectorized();
+        for (final var vectorized : new boolean[] {false, true}) {
+            if (SteeringKernels.setVectorized(vectorized) != vectorized) continue;
+            final var suffix = vectorized ? " [simd]" : " [scalar]";
+            if (!h.prepare(count, density, "SteeringKernels.seek" + suffix, "SteeringKernels.flee" + suffix,
+                "SteeringKernels.arrive" + suffix, "Car.update [store]" + suffix)) continue;
+
+            final var cars = population(count, density, EngineBenchmarks::idleCar);
+            final var x = new double[count];
+            final var y = new double[count];
+            final var vx = new double[count];
+            final var vy = new double[count];
+            final var maxSpeed = new double[count];
+            final var fx = new double[count];
+            final var fy = new double[count];
+            for (var i = 0; i < count; i++) {
+                final var car = cars.get(i);
+                x[i] = car.getPosition().x;
+                y[i] = car.getPosition().y;
+                vx[i] = car.getVelocity().x;
+                vy[i] = car.getVelocity().y;
+                maxSpeed[i] = car.getMaxSpeed();
+            }
+
+            h.run("SteeringKernels.seek" + suffix, count, density, count, i -> {
+                SteeringKernels.seek(0, 0, x, y, vx, vy, maxSpeed, fx, fy, 0, count);
+                return fx[i % count];
+            });
+            h.run("SteeringKernels.flee" + suffix, count, density, count, i -> {
+                SteeringKernels.flee(0, 0, RADIUS * 4, x, y, vx, vy, maxSpeed, fx, fy, 0, count);
+                return fx[i % count];
+            });
+            h.run("SteeringKernels.arrive" + suffix, count, density, count, i -> {
+                SteeringKernels.arrive(0, 0, RADIUS * 4, 1, x, y, vx, vy, maxSpeed, fx, fy, 0, count);
+                return fx[i % count];
+            });
+            if (h.accepts("Car.update [store]" + suffix)) {
+                final var simulation = simulation(population(count, density, EngineBenchmarks::idleCar), true);
+                h.run("Car.update [store]" + suffix, count, density, count, i -> {
+                    simulation.step(SECS);
+                    return 0;
+                });
+            }
+        }
+        SteeringKernels.setVectorized(simd);
+    }
+
+    // ---- Car update ----
+
+    private static void updateBenchmarks(Harness h, int count, double density) {
+        if (h.prepare(count, density, "Car.update")) {
+            final var simulation = simulation(population(count, density, EngineBenchmarks::idleCar), false);
+            h.run("Car.update", count, density, count, i -> {
+                simulation.step(SECS);
+                return 0;
+            });
+        }
+        if (h.prepare(count, density, "Car.update [pair avoidance]")) {
+            // Compare with World.getAvoidance [per car], that adds up the neighbors of each car
+            final var simulation = simulation(population(count, density, EngineBenchmarks::avoidingCar), false);
+            h.run("Car.update [pair avoidance]", count, density, count, i -> {
+                simulation.step(SECS);
+                return 0;
+            });
+        }
+        if (h.prepare(count, density, "Car.update [flow field]")) {
+            // All cars go to the mouse around the walls of the map, through one shared field
+            final var simulation = simulation(population(count, density, EngineBenchmarks::flowingCar), false);
+            simulation.setWalls(DistanceField.of(wallMap()));
+            simulation.setMousePos(vec2(100, 100));
+            h.run("Car.update [flow field]", count, density, count, i -> {
+                simulation.step(SECS);
+                return 0;
+            });
+        }
+        if (h.prepare(count, density, "Car.update [store]")) {
+            final var simulation = simulation(population(count, density, EngineBenchmarks::idleCar), true);
+            h.run("Car.update [store]", count, density, count, i -> {
+                simulation.step(SECS);
+                return 0;
+            });
+        }
+    }
+
+    // ---- Steering ----
+
+    private static void behaviorBenchmarks(Harness h, int count, double density) {
+        behavior(h, "SteeringUtils.calculateAvoidance", count, density, StudentCarMouse::new,
+            (car, world) -> SteeringUtils.calculateAvoidance(car, world).x);
+        behavior(h, "StudentCar", count, density, StudentCar::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarArrive", count, density, StudentCarArrive::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarFlee", count, density, StudentCarFlee::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarFollowPath", count, density, StudentCarFollowPath::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarMagenta", count, density, StudentCarMagenta::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarMouse", count, density, StudentCarMouse::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarSeek", count, density, StudentCarSeek::new, EngineBenchmarks::steer);
+        behavior(h, "StudentCarWander", count, density, StudentCarWander::new, EngineBenchmarks::steer);
+    }
+
+    @FunctionalInterface
+    private interface Steering {
+        double run(Car car, World world);
+    }
+
+    private static double steer(Car car, World world) {
+        final var steering = car.calculateSteering(world);
+        return steering == null ? 0 : steering.x;
+    }
+
+    private static void behavior(Harness h, String name, int count, double density,
+                                 CarFactory factory, Steering steering) {
+        if (!h.prepare(count, density, name)) return;
+
+        final var cars = population(count, density, factory);
+        final var grid = new SpatialGrid(80);
+        grid.rebuild(cars);
+        final var worlds = worlds(cars, grid, null);
+        h.run(name, count, density, 1, i -> steering.run(cars.get(i % count), worlds[i % count]));
+    }
+
+    // ---- Setup ----
+
+    // One view per car over a single tick, like the simulation does
+    private static World[] worlds(List<Car> cars, SpatialGrid grid, KdTree kdTree) {
+        final var tick = new TickContext(SECS, cars, grid, kdTree, vec2(0, 0), null, false, 1024, 768);
+        final var worlds = new World[cars.size()];
+        for (var i = 0; i < worlds.length; i++) {
+            worlds[i] = new World(tick, cars.get(i));
+        }
+        return worlds;
+    }
+
+    private static Simulation simulation(List<Car> cars, boolean useStore) {
+        // A single thread, so all the allocation is seen by the benchmark thread
+        return new Simulation(cars, useStore, 1, 1024, 768);
+    }
+
+    /**
+     * Creates cars spread over a square sized so each car has, on average,
+     * density cars inside its avoidance radius.
+     */
+    private static List<Car> population(int count, double density, CarFactory factory) {
+        final var rnd = new SplittableRandom(42);
+        final var side = Math.sqrt(count * Math.PI * RADIUS * RADIUS / density);
+        final var cars = new ArrayList<Car>(count);
+        for (var i = 0; i < count; i++) {
+            final var color = new Color(rnd.nextInt(0x1000000));
+            cars.add(factory.create(color, rnd.nextDouble(-side / 2, side / 2), rnd.nextDouble(-side / 2, side / 2)));
+        }
+        return cars;
+    }
+
+    /**
+     * A car that calculates its avoidance force, with the forces calculated one pair at a time.
+     * It does not move, so the density stays the same.
+     */
+    private static Car avoidingCar(Color color, double x, double y) {
+        return new Car(s -> s.color(color).position(x, y)) {
+            private final Vector2 force = vec2();
+
+            @Override
+            public Vector2 calculateSteering(World world) {
+                world.getAvoidance(RADIUS, REPULSION, force);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * A car that reads the way to the mouse from the flow field.
+     * It does not move, so the cars stay spread over the world.
+     */
+    private static Car flowingCar(Color color, double x, double y) {
+        return new Car(s -> s.color(color).position(x, y)) {
+            private final Vector2 direction = vec2();
+
+            @Override
+            public Vector2 calculateSteering(World world) {
+                world.getFlowToMouse(direction);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * A car that always steers to the same direction. Measures the engine update cost only.
+     */
+    private static Car idleCar(Color color, double x, double y) {
+        return new Car(s -> s.color(color).position(x, y)) {
+            @Override
+            public Vector2 calculateSteering(World world) {
+                return vec2(1, 0);
+            }
+        };
+    }
+}
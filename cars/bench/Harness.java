@@ -0,0 +1,199 @@
+package cars.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal throughput benchmark harness, in the spirit of JMH.
+ * <p>
+ * Each benchmark runs a few timed warmup iterations, then a few measured ones, and reports
+ * the average throughput (ops/s) and the heap allocated by the benchmark thread per operation.
+ * Results of every operation are folded into a sink, so the JIT can not drop the work.
+ * <p>
+ * By default each benchmark runs in its own JVM, started with the same options and class path.
+ * In one JVM, the call to {@link Op#run} would see the lambdas of all the benchmarks before it,
+ * stop being inlined, and make the later benchmarks look slower than they are. The data of a
+ * benchmark is prepared after {@link #prepare}, so it is only built in the JVM that measures.
+ */
+final class Harness {
+    private static final long WARMUP_NANOS = 100_000_000L;
+    private static final long MEASURE_NANOS = 200_000_000L;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * One benchmark operation. The return value is consumed by the harness.
+     */
+    @FunctionalInterface
+    interface Op {
+        /**
+         * @param i Invocation counter, e.g. to pick the car to operate on.
+         */
+        double run(int i);
+    }
+
+    /**
+     * Where the benchmarks run.
+     */
+    enum Mode {
+        /** Each benchmark in its own JVM. */
+        FORK,
+        /** All benchmarks in this JVM, for quick runs and profiling. */
+        IN_PROCESS,
+        /** This JVM was started by a FORK harness to run the benchmark of the given name: no header. */
+        FORKED
+    }
+
+    private static final String SINK = "# sink: ";
+
+    private final Pattern filter; // null when FORKED
+    private final String name;    // the benchmark to run when FORKED
+    private final Mode mode;
+    private final Class<?> main;
+    private double sink;
+
+    /**
+     * @param filter Regular expression matched against the benchmark names, or the exact name of
+     *               the benchmark to run when FORKED.
+     * @param mode   Where the benchmarks run.
+     * @param main   Class whose main method runs the benchmarks, with the arguments of a FORKED run:
+     *               <code>-cars=N -density=D -forked=&lt;name&gt;</code>.
+     */
+    Harness(String filter, Mode mode, Class<?> main) {
+        this.filter = mode == Mode.FORKED ? null : Pattern.compile(filter);
+        this.name = mode == Mode.FORKED ? filter : null;
+        this.mode = mode;
+        this.main = main;
+        if (mode == Mode.FORKED) return;
+        System.out.printf("%-44s %10s %8s %16s %14s%n", "Benchmark", "(cars)", "(density)", "Score (ops/s)", "alloc (B/op)");
+    }
+
+    boolean accepts(String name) {
+        return mode == Mode.FORKED ? name.equals(this.name) : filter.matcher(name).find();
+    }
+
+    /**
+     * Call before preparing the data of some benchmarks.
+     * <p>
+     * A FORK harness runs the accepted ones in new JVMs right away, and returns false: the data is
+     * not needed here. The other modes return true if any of them is accepted.
+     *
+     * @param cars    Car count parameter.
+     * @param density Density parameter.
+     * @param names   Names of all the benchmarks the data is for.
+     * @return True if the data must be prepared and the benchmarks {@link #run} in this JVM.
+     */
+    boolean prepare(int cars, double density, String... names) {
+        var accepted = false;
+        for (final var name : names) {
+            if (!accepts(name)) continue;
+            accepted = true;
+            if (mode == Mode.FORK) fork(name, cars, density);
+        }
+        return accepted && mode != Mode.FORK;
+    }
+
+    /**
+     * Runs and reports a benchmark.
+     *
+     * @param name             Benchmark name.
+     * @param cars             Car count parameter.
+     * @param density          Density parameter.
+     * @param opsPerInvocation How many logical operations one call to op performs.
+     * @param op               The operation.
+     */
+    void run(String name, int cars, double density, int opsPerInvocation, Op op) {
+        if (!accepts(name)) return;
+        if (mode == Mode.FORK) {
+            fork(name, cars, density);
+            return;
+        }
+
+        for (var i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(op, WARMUP_NANOS);
+        }
+
+        var invocations = 0L;
+        var nanos = 0L;
+        var bytes = 0L;
+        for (var i = 0; i < MEASURE_ITERATIONS; i++) {
+            final var bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+            final var start = System.nanoTime();
+            invocations += iteration(op, MEASURE_NANOS);
+            nanos += System.nanoTime() - start;
+            bytes += THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+        }
+
+        final var ops = (double) invocations * opsPerInvocation;
+        System.out.printf(Locale.ROOT, "%-44s %10d %8.1f %16.1f %14.1f%n",
+            name, cars, density, ops / (nanos / 1e9), bytes / ops);
+    }
+
+    private long iteration(Op op, long budget) {
+        final var end = System.nanoTime() + budget;
+        var count = 0;
+        var acc = 0.0;
+        // Some ops take a few nanoseconds: grow the batch between clock reads up to ~10us
+        var batch = 1;
+        do {
+            final var start = System.nanoTime();
+            for (var k = 0; k < batch; k++) {
+                acc += op.run(count++);
+            }
+            if (batch < 1024 && System.nanoTime() - start < 10_000) batch <<= 1;
+        } while (System.nanoTime() < end);
+        sink += acc;
+        return count;
+    }
+
+    // Runs only this benchmark in a new JVM, and passes its report on
+    private void fork(String name, int cars, double density) {
+        final var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command()
+            .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        command.add("-cars=" + cars);
+        command.add("-density=" + density);
+        command.add("-forked=" + name);
+        try {
+            final var process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            try (final var output = process.inputReader()) {
+                for (var line = output.readLine(); line != null; line = output.readLine()) {
+                    if (line.startsWith(SINK)) {
+                        sink += Double.parseDouble(line.substring(SINK.length()));
+                    } else {
+                        System.out.println(line);
+                    }
+                }
+            }
+            final var exitCode = process.waitFor();
+            if (exitCode != 0) System.out.printf("%-44s failed with exit code %d%n", name, exitCode);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not run " + name + " in a new JVM", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running " + name, e);
+        }
+    }
+
+    /**
+     * Prints the folded results, which keeps the operations alive. A FORK harness prints the sum
+     * of the results of its JVMs.
+     */
+    void printSink() {
+        System.out.println(SINK + sink);
+    }
+}
@@ -0,0 +1,87 @@
+package cars.bench;
+
+import cars.engine.Car;
+import cars.engine.SpatialGrid;
+import cars.engine.Vector2;
+import cars.engine.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the cost of one tick worth of neighbor queries (one radius query per car),
+ * with the car density held constant while the car count grows.
+ * <p>
+ * Run with: <code>java cars.bench.NeighborQueryBenchmark</code>
+ * <p>
+ * The cost per car should stay roughly flat from 1k to 1M cars. The linear scan used by
+ * {@link World} without a grid is measured up to 10k cars for comparison.
+ */
+public final class NeighborQueryBenchmark {
+    private static final int RADIUS = 75;
+    // Pixels squared per car: about 4 neighbors inside the radius on average
+    private static final double AREA_PER_CAR = Math.PI * RADIUS * RADIUS / 4.0;
+    private static final int[] COUNTS = {1_000, 10_000, 100_000, 1_000_000};
+    private static final int LINEAR_SCAN_LIMIT = 10_000;
+
+    public static void main(String[] args) {
+        System.out.printf("%10s %14s %14s %14s %12s%n",
+            "cars", "rebuild (ms)", "query (ms)", "ns/car", "neighbors");
+        for (var count : COUNTS) {
+            final var cars = createCars(count, new SplittableRandom(42));
+            final var grid = new SpatialGrid(80);
+            final var result = new ArrayList<Car>();
+
+            // Warm up, then keep the best of a few runs
+            var bestRebuild = Long.MAX_VALUE;
+            var bestQuery = Long.MAX_VALUE;
+            var found = 0L;
+            for (var run = 0; run < 8; run++) {
+                final var t0 = System.nanoTime();
+                grid.rebuild(cars);
+                final var t1 = System.nanoTime();
+                found = 0;
+                for (var car : cars) {
+                    result.clear();
+                    final var p = car.getPosition();
+                    grid.collect(p.x, p.y, RADIUS, car, result);
+                    found += result.size();
+                }
+                final var t2 = System.nanoTime();
+                bestRebuild = Math.min(bestRebuild, t1 - t0);
+                bestQuery = Math.min(bestQuery, t2 - t1);
+            }
+            System.out.printf("%10d %14.2f %14.2f %14.1f %12.2f%n",
+                count, bestRebuild / 1e6, bestQuery / 1e6,
+                (double) (bestRebuild + bestQuery) / count, (double) found / count);
+
+            if (count <= LINEAR_SCAN_LIMIT) {
+                final var t0 = System.nanoTime();
+                var linear = 0L;
+                for (var car : cars) {
+                    linear += new World(0, car, cars, null, null, false, 0, 0).getNeighbors(RADIUS).size();
+                }
+                final var elapsed = System.nanoTime() - t0;
+                System.out.printf("%10s %14s %14.2f %14.1f %12.2f%n",
+                    "(linear)", "-", elapsed / 1e6, (double) elapsed / count, (double) linear / count);
+            }
+        }
+    }
+
+    static List<Car> createCars(int count, SplittableRandom rnd) {
+        final var side = Math.sqrt(count * AREA_PER_CAR);
+        final var cars = new ArrayList<Car>(count);
+        for (var i = 0; i < count; i++) {
+            final var x = rnd.nextDouble(-side / 2, side / 2);
+            final var y = rnd.nextDouble(-side / 2, side / 2);
+            cars.add(new Car(s -> s.position(x, y)) {
+                @Override
+                public Vector2 calculateSteering(World world) {
+                    return null;
+                }
+            });
+        }
+        return cars;
+    }
+}
@@ -0,0 +1,103 @@
+package cars.engine;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/**
+ * Background image, stretched over the world and pre-scaled to its size on screen.
+ * <p>
+ * The scaled copy is kept in an accelerated {@link VolatileImage} and rebuilt only when the size
+ * changes or the surface contents are lost, so drawing the background is a 1:1 blit every frame.
+ * When zoomed in so much that the scaled copy would be much larger than the view, only the
+ * visible part of the source image is scaled instead, every frame.
+ * <p>
+ * Not thread safe: use from the render thread only.
+ */
+final class BackgroundLayer {
+    // The scaled copy may take this many times the view area, beyond that only the visible part is drawn
+    private static final double MAX_CACHED_VIEWS = 4;
+
+    private final BufferedImage source;
+    private VolatileImage scaled;
+
+    /**
+     * @param source The full resolution image.
+     */
+    BackgroundLayer(BufferedImage source) {
+        this.source = source;
+    }
+
+    /**
+     * Draws the background covering the given rectangle, in screen pixels. g must not be transformed.
+     *
+     * @param x          Left of the rectangle.
+     * @param y          Top of the rectangle.
+     * @param width      Width of the rectangle.
+     * @param height     Height of the rectangle.
+     * @param viewWidth  Width of the view, in pixels.
+     * @param viewHeight Height of the view, in pixels.
+     */
+    void draw(Graphics2D g, double x, double y, double width, double height, int viewWidth, int viewHeight) {
+        if (width < 1 || height < 1) return;
+        if (width * height > MAX_CACHED_VIEWS * viewWidth * viewHeight) {
+            drawVisiblePart(g, x, y, width, height, viewWidth, viewHeight);
+            return;
+        }
+        draw(g, (int) Math.round(x), (int) Math.round(y), (int) Math.round(width), (int) Math.round(height));
+    }
+
+    private void draw(Graphics2D g, int x, int y, int width, int height) {
+        final var config = g.getDeviceConfiguration();
+        do {
+            if (scaled == null || scaled.getWidth() != width || scaled.getHeight() != height) {
+                recreate(config, width, height);
+            }
+
+            final var status = scaled.validate(config);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                recreate(config, width, height);
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                render();
+            }
+
+            g.drawImage(scaled, x, y, null);
+        } while (scaled.contentsLost());
+    }
+
+    // Maps the visible part of the source image straight to the view
+    private void drawVisiblePart(Graphics2D g, double x, double y, double width, double height,
+                                 int viewWidth, int viewHeight) {
+        final var sx = source.getWidth() / width;
+        final var sy = source.getHeight() / height;
+        final var dx1 = Math.max(0, (int) Math.floor(x));
+        final var dy1 = Math.max(0, (int) Math.floor(y));
+        final var dx2 = Math.min(viewWidth, (int) Math.ceil(x + width));
+        final var dy2 = Math.min(viewHeight, (int) Math.ceil(y + height));
+        if (dx2 <= dx1 || dy2 <= dy1) return;
+
+        final var oldHint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source,
+            dx1, dy1, dx2, dy2,
+            (int) ((dx1 - x) * sx), (int) ((dy1 - y) * sy),
+            (int) Math.ceil((dx2 - x) * sx), (int) Math.ceil((dy2 - y) * sy),
+            null);
+        if (oldHint != null) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldHint);
+    }
+
+    private void recreate(GraphicsConfiguration config, int width, int height) {
+        if (scaled != null) scaled.flush();
+        scaled = config.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+        render();
+    }
+
+    // The expensive part: a high quality rescale, done once per size instead of every frame
+    private void render() {
+        final var g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(source, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+        g.dispose();
+    }
+}
@@ -0,0 +1,110 @@
+package cars.engine;
+
+import java.util.Objects;
+
+/**
+ * A built-in steering behavior the engine can calculate for many cars at once, with
+ * {@link SteeringKernels}.
+ * <p>
+ * Cars declare it through {@link Car#getBatchBehavior()}. When the car state is kept in a
+ * {@link CarStore}, the engine calculates the behavior force of all those cars before they steer,
+ * one run of consecutive cars with the same behavior at a time, and each car reads its force with
+ * {@link World#getBatchForce(Vector2)}. Cars that go one after the other in the car list (like the
+ * groups of a {@link Scenario}) get the most out of it.
+ * <p>
+ * All behaviors target the mouse; without it, the force is zero. The kernels go in a straight line,
+ * so in a world with walls the engine does not calculate the behaviors that go to the mouse (seek
+ * and arrive): those cars find their way with {@link World#getFlowToMouse(Vector2)}.
+ */
+public final class BatchBehavior {
+    enum Kind { SEEK, FLEE, ARRIVE }
+
+    private final Kind kind;
+    private final double radius;
+    private final double speedAtRadius;
+
+    private BatchBehavior(Kind kind, double radius, double speedAtRadius) {
+        this.kind = kind;
+        this.radius = radius;
+        this.speedAtRadius = speedAtRadius;
+    }
+
+    /**
+     * Goes to the mouse at max speed.
+     */
+    public static BatchBehavior seekMouse() {
+        return new BatchBehavior(Kind.SEEK, 0, 1);
+    }
+
+    /**
+     * Runs away from the mouse at max speed, while it is inside the panic radius.
+     * Outside of it, the force is zero.
+     */
+    public static BatchBehavior fleeMouse(double panicRadius) {
+        if (panicRadius < 0) {
+            throw new IllegalArgumentException("panicRadius must not be negative");
+        }
+        return new BatchBehavior(Kind.FLEE, panicRadius, 1);
+    }
+
+    /**
+     * Goes to the mouse, slowing down inside the slowing radius: there, the desired speed is
+     * proportional to the distance, from speedAtRadius * max speed at the radius to 0 at the mouse.
+     *
+     * @param slowingRadius Distance where the car starts to slow down.
+     * @param speedAtRadius Fraction of the max speed at the slowing radius. 1 is the classic arrive.
+     */
+    public static BatchBehavior arriveMouse(double slowingRadius, double speedAtRadius) {
+        if (slowingRadius <= 0) {
+            throw new IllegalArgumentException("slowingRadius must be greater than 0");
+        }
+        return new BatchBehavior(Kind.ARRIVE, slowingRadius, speedAtRadius);
+    }
+
+    /**
+     * @return True if the kernel is only right without walls: the car goes to the mouse, and
+     * would have to go around them.
+     */
+    boolean needsOpenWorld() {
+        return kind != Kind.FLEE;
+    }
+
+    /**
+     * Calculates the behavior force of the cars in the given slot range.
+     */
+    void steer(CarStore store, boolean hasTarget, double tx, double ty, int from, int to) {
+        if (!hasTarget) {
+            SteeringKernels.zero(store.batchFx, store.batchFy, from, to);
+            return;
+        }
+        switch (kind) {
+            case SEEK -> SteeringKernels.seek(tx, ty, store.x, store.y, store.vx, store.vy, store.maxSpeed,
+                store.batchFx, store.batchFy, from, to);
+            case FLEE -> SteeringKernels.flee(tx, ty, radius, store.x, store.y, store.vx, store.vy, store.maxSpeed,
+                store.batchFx, store.batchFy, from, to);
+            case ARRIVE -> SteeringKernels.arrive(tx, ty, radius, speedAtRadius, store.x, store.y, store.vx, store.vy,
+                store.maxSpeed, store.batchFx, store.batchFy, from, to);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof BatchBehavior b)) return false;
+        return kind == b.kind && radius == b.radius && speedAtRadius == b.speedAtRadius;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, radius, speedAtRadius);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case SEEK -> "seekMouse()";
+            case FLEE -> "fleeMouse(" + radius + ")";
+            case ARRIVE -> "arriveMouse(" + radius + ", " + speedAtRadius + ")";
+        };
+    }
+}
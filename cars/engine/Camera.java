@@ -0,0 +1,106 @@
+package cars.engine;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * View of the world shown in the window: the world point at the center of the view, and a zoom.
+ * <p>
+ * The camera may follow a car, by its index in the snapshots; moving the camera by hand stops
+ * following. Input handlers and the renderer may use the camera from different threads.
+ */
+final class Camera {
+    static final double MIN_ZOOM = 0.02;
+    static final double MAX_ZOOM = 8.0;
+
+    private double centerX = 0;
+    private double centerY = 0;
+    private double zoom = 1.0;
+    private int viewWidth;
+    private int viewHeight;
+    private int following = -1;
+
+    synchronized void setViewSize(int width, int height) {
+        this.viewWidth = width;
+        this.viewHeight = height;
+    }
+
+    synchronized double getZoom() { return zoom; }
+
+    /**
+     * @return The index of the followed car, or -1.
+     */
+    synchronized int getFollowing() { return following; }
+
+    // ---- Input ----
+
+    /**
+     * Moves the view by the given amount of screen pixels.
+     */
+    synchronized void pan(double dx, double dy) {
+        following = -1;
+        centerX -= dx / zoom;
+        centerY -= dy / zoom;
+    }
+
+    /**
+     * Multiplies the zoom by the given factor, keeping the world point under (screenX, screenY)
+     * in place.
+     */
+    synchronized void zoom(double factor, double screenX, double screenY) {
+        final var beforeX = toWorldX(screenX);
+        final var beforeY = toWorldY(screenY);
+        zoom = Math.clamp(zoom * factor, MIN_ZOOM, MAX_ZOOM);
+        if (following < 0) {
+            centerX += beforeX - toWorldX(screenX);
+            centerY += beforeY - toWorldY(screenY);
+        }
+    }
+
+    /**
+     * Follows the car with the given index, or stops following with -1.
+     * Indexes past the last car go back to the first one.
+     */
+    synchronized void follow(int index) {
+        following = index;
+    }
+
+    /**
+     * Centers the world and resets the zoom.
+     */
+    synchronized void reset() {
+        following = -1;
+        centerX = 0;
+        centerY = 0;
+        zoom = 1.0;
+    }
+
+    // ---- Conversions ----
+
+    synchronized double toWorldX(double screenX) { return (screenX - viewWidth / 2.0) / zoom + centerX; }
+    synchronized double toWorldY(double screenY) { return (screenY - viewHeight / 2.0) / zoom + centerY; }
+
+    /**
+     * Applies the camera to g, that should be drawing in screen pixels, and stores the visible
+     * part of the world in view. Call once per frame, before drawing the world.
+     *
+     * @param snapshot The snapshot being drawn, to follow a car.
+     * @param alpha    The interpolation factor of the frame.
+     * @param view     Receives the visible world rectangle.
+     */
+    synchronized void apply(Graphics2D g, Snapshot snapshot, double alpha, Rectangle2D.Double view) {
+        if (following >= snapshot.count) following = snapshot.count > 0 ? 0 : -1; // back to the first car
+        if (following >= 0) {
+            centerX = snapshot.x(following, alpha);
+            centerY = snapshot.y(following, alpha);
+        }
+
+        g.translate(viewWidth / 2.0, viewHeight / 2.0);
+        g.scale(zoom, zoom);
+        g.translate(-centerX, -centerY);
+
+        final var w = viewWidth / zoom;
+        final var h = viewHeight / zoom;
+        view.setRect(centerX - w / 2, centerY - h / 2, w, h);
+    }
+}
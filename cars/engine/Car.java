@@ -2,12 +2,53 @@ package cars.engine;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
 import static cars.engine.Vector2.*;
-import static java.lang.Math.toRadians;
 
 public abstract class Car implements Cloneable {
+    // Settings applied after the ones of the subclass, by the constructors running on this thread.
+    // Used to rebuild cars from a checkpoint with their saved color and limits.
+    static final ThreadLocal<Consumer<Settings>> OVERRIDES = new ThreadLocal<>();
+
+    // Creates a car of a class from its (Color, double, double) constructor, or null if it has none
+    private static final ClassValue<MethodHandle> FACTORIES = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup()
+                    .findConstructor(type, MethodType.methodType(void.class, Color.class, double.class, double.class))
+                    .asType(MethodType.methodType(Car.class, Color.class, double.class, double.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+    };
+
+    /**
+     * The car class of the given name, for cars named in a file. The class is loaded without
+     * being initialized, so a class that is not a car runs no code.
+     *
+     * @return The class, or null if it is not a car.
+     * @throws ClassNotFoundException If there is no class of that name.
+     */
+    static Class<? extends Car> carClass(String name) throws ClassNotFoundException {
+        final var type = Class.forName(name, false, Car.class.getClassLoader());
+        return Car.class.isAssignableFrom(type) ? type.asSubclass(Car.class) : null;
+    }
+
+    /**
+     * The public <code>(Color, double, double)</code> constructor of a car class, as a handle of
+     * type <code>(Color, double, double)Car</code>, or null if it has none.
+     */
+    static MethodHandle factoryOf(Class<? extends Car> type) {
+        return FACTORIES.get(type);
+    }
+
     private final Color color;
     private final double mass;
     private final double maxForce;
@@ -17,10 +58,19 @@ public abstract class Car implements Cloneable {
 
     // Store last clamped steering (pre-dt) for debug drawing
     private Vector2 lastSteering = vec2();
+    // False if calculateSteering returned null this tick: the car does not move
+    private boolean steered = false;
+
+    // When attached to a CarStore, the state lives in the store columns and the
+    // vector fields above are released: the car is only a handle to its slot.
+    private CarStore store;
+    private int slot;
 
     public Car(Consumer<Settings> settings) {
         var cs = new Settings();
         settings.accept(cs);
+        final var overrides = OVERRIDES.get();
+        if (overrides != null) overrides.accept(cs);
         this.color = cs.color;
         this.position = cs.position;
         this.velocity = Vector2.byAngle(cs.orientation);
@@ -30,38 +80,136 @@ public abstract class Car implements Cloneable {
     }
 
     // ---- Accessors ----
-    public Vector2 getPosition() { return position.clone(); }
-    public Vector2 getVelocity() { return velocity.clone(); }
-    public double getSpeed() { return velocity.size(); }
+    public Vector2 getPosition() { return vec2(x(), y()); }
+    public Vector2 getVelocity() { return vec2(vx(), vy()); }
+    public double getSpeed() { return Math.sqrt(vx() * vx() + vy() * vy()); }
 
     public Color getColor() {
         return color;
     }
 
-    public Vector2 getDirection() { return velocity.isZero() ? byAngle(0) : normalize(velocity); }
+    public Vector2 getDirection() { return getDirection(vec2()); }
+
+    // Allocation-free versions: the result is written in dest, that is also returned
+    public Vector2 getPosition(Vector2 dest) { return dest.set(x(), y()); }
+    public Vector2 getVelocity(Vector2 dest) { return dest.set(vx(), vy()); }
+    public Vector2 getDirection(Vector2 dest) {
+        getVelocity(dest);
+        return dest.isZero() ? dest.set(1, 0) : dest.normalize();
+    }
+
     public double getMass() { return mass; }
     public double getMaxForce() { return maxForce; }
     public double getMaxSpeed() { return maxSpeed; }
-    private Vector2 getLastSteering() { return lastSteering == null ? null : lastSteering.clone(); }
+    private Vector2 getLastSteering() {
+        if (store != null) return vec2(store.fx[slot], store.fy[slot]);
+        return lastSteering == null ? null : lastSteering.clone();
+    }
+
+    // Primitive accessors, used by the engine to read state without allocating
+    double x() { return store == null ? position.x : store.x[slot]; }
+    double y() { return store == null ? position.y : store.y[slot]; }
+    double vx() { return store == null ? velocity.x : store.vx[slot]; }
+    double vy() { return store == null ? velocity.y : store.vy[slot]; }
+    double fx() { return store == null ? lastSteering.x : store.fx[slot]; }
+    double fy() { return store == null ? lastSteering.y : store.fy[slot]; }
+    boolean steered() { return store == null ? steered : store.steered[slot]; }
+
+    // The force calculated for this car by its batch behavior this tick, or null if there is none
+    // (or it was skipped because of the walls)
+    Vector2 batchForce(Vector2 dest, boolean hasWalls) {
+        if (store == null) return null;
+        final var behavior = store.batch[slot];
+        if (behavior == null || (hasWalls && behavior.needsOpenWorld())) return null;
+        return dest.set(store.batchFx[slot], store.batchFy[slot]);
+    }
+
+    /**
+     * Moves this car state into the given store slot. From now on, the store owns the state.
+     */
+    void attach(CarStore store, int slot) {
+        store.set(slot, x(), y(), vx(), vy(), mass, maxForce, maxSpeed);
+        this.store = store;
+        this.slot = slot;
+        this.position = null;
+        this.velocity = null;
+        this.lastSteering = null;
+    }
+
+    /**
+     * Sets the state of a car that is not attached to a store, as saved by a checkpoint.
+     */
+    void restore(double x, double y, double vx, double vy, double fx, double fy, boolean steered) {
+        position.set(x, y);
+        velocity.set(vx, vy);
+        lastSteering.set(fx, fy);
+        this.steered = steered;
+    }
 
     public abstract Vector2 calculateSteering(World world);
 
-    void update(World world) {
+    /**
+     * A built-in behavior the engine may calculate for this car, together with other cars, before
+     * calculateSteering is called. Its result is read with {@link World#getBatchForce(Vector2)}.
+     * Called once, when the simulation starts.
+     *
+     * @return The behavior, or null (the default) if the car calculates everything itself.
+     */
+    protected BatchBehavior getBatchBehavior() { return null; }
+
+    // ---- Checkpoints ----
+
+    /**
+     * Writes the internal state of the behavior (timers, angles, path progress...) when a
+     * checkpoint is saved. Position, velocity, color and limits are saved by the engine.
+     * At most {@link Checkpoint#MAX_STATE_BYTES} may be written.
+     *
+     * @param out Buffer to write the state to.
+     */
+    protected void writeState(ByteBuffer out) {}
+
+    /**
+     * Reads back the state written by {@link #writeState(ByteBuffer)}, right after the car is
+     * created from a checkpoint.
+     *
+     * @param in Buffer holding exactly the bytes written for this car.
+     */
+    protected void readState(ByteBuffer in) {}
+
+    // ---- Tick phases ----
+    // 1. steer: every car calculates its steering, reading only the state of the previous tick.
+    // 2. integrate: every car applies its own steering. No car reads other cars in this phase.
+
+    void steer(World world) {
         final var steeringForce = calculateSteering(world);
+        if (store != null) {
+            // Integration runs for all cars at once, in CarStore.integrate
+            store.steer(slot, steeringForce);
+            return;
+        }
         if (steeringForce == null) {
-            lastSteering = vec2();
+            lastSteering.set(0, 0);
+            steered = false;
             return;
         }
 
-        lastSteering = truncate(steeringForce, maxForce);
+        lastSteering.set(steeringForce).truncate(maxForce);
+        steered = true;
+    }
+
+    void integrate(double secs, double width, double height) {
+        if (!steered) return;
 
-        final var impulse = multiply(lastSteering, world.getSecs()); // F * dt
-        final var acceleration = divide(impulse, mass);              // (F*dt)/m
-        velocity = truncate(add(velocity, acceleration), maxSpeed);
-        position = add(position, multiply(velocity, world.getSecs()));
+        // Updated in place: nothing outside the car holds its state vectors
+        final var invMass = 1.0 / mass;
+        velocity.add(                                                // v += (F*dt)/m
+            lastSteering.x * secs * invMass,
+            lastSteering.y * secs * invMass
+        ).truncate(maxSpeed);
+        position.add(velocity.x * secs, velocity.y * secs);
 
-        final var w = world.getWidth() / 2.0;
-        final var h = world.getHeight() / 2.0;
+        final var w = width / 2.0;
+        final var h = height / 2.0;
         if (position.x < -(w + 20)) position.x =  w;
         if (position.x >  (w + 20)) position.x = -w;
         if (position.y < -(h + 20)) position.y =  h;
@@ -71,25 +219,30 @@ public abstract class Car implements Cloneable {
     // -----------------------------------------------------
     // Drawing (Java2D)
     // -----------------------------------------------------
-    void draw(Graphics2D g, boolean debug) {
-        // Car in its local (heading) frame
-        final var g2 = (Graphics2D) g.create();
-        g2.translate(position.x, position.y);
-        g2.rotate(velocity.getAngle());               // radians
-        g2.scale(-0.5, 0.5);                          // mirror X + scale 50% (match JavaFX)
-
-        drawF1Car80px(g2, color);
-
-        g2.dispose();
-
-        // Debug vectors in WORLD space (no rotation)
-        if (debug) {
-            drawDebugArrows(g);
+    // Cars are drawn from snapshot values, so the render thread never reads live car state.
+    // If sprites is not null, the car is blitted from the sprite cache instead of drawn as vectors;
+    // returns false if its sprite was not ready, and the car was not drawn.
+    // Debug arrows are collected by DebugOverlay and drawn for all cars at once.
+    static boolean draw(Graphics2D g, CarSprites sprites, double x, double y, double vx, double vy, Color color) {
+        final var angle = Math.atan2(vy, vx);         // radians
+        if (sprites != null) {
+            return sprites.draw(g, x, y, angle, color);
+        } else {
+            // Car in its local (heading) frame
+            final var saved = g.getTransform();
+            g.translate(x, y);
+            g.rotate(angle);
+            g.scale(-0.5, 0.5);                       // mirror X + scale 50% (match JavaFX)
+
+            drawF1Car80px(g, color);
+
+            g.setTransform(saved);
+            return true;
         }
     }
 
     // ----- F1 car, authored at 80px, drawn with 50% scale above -----
-    private static void drawF1Car80px(Graphics2D g, Color bodyColor) {
+    static void drawF1Car80px(Graphics2D g, Color bodyColor) {
         final var L = 80.0;
         final var W = 36.0;
         final var halfL = L / 2.0;
@@ -151,48 +304,15 @@ public abstract class Car implements Cloneable {
         g.setStroke(oldStroke);
     }
 
-    // ----- Debug arrows (WORLD space) -----
-    private void drawDebugArrows(Graphics2D g) {
-        final var origin = add(position, multiply(getDirection(), 12));
-        drawArrow(g, origin, velocity, 0.20, new Color(0, 0, 255));           // BLUE
-        drawArrow(g, origin, getLastSteering(), 0.10, new Color(255, 69, 0)); // ORANGERED
-    }
-
-    private static void drawArrow(Graphics2D g, Vector2 origin, Vector2 vector, double scale, Color color) {
-        if (Vector2.isZero(vector)) return;
-
-        final var tip = add(origin, multiply(vector, scale));
-        final var dir = subtract(tip, origin);
-
-        final var oldComp = g.getComposite();
-        final var oldStroke = g.getStroke();
-        final var oldColor = g.getColor();
-
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.25f));
-        g.setColor(color);
-        g.setStroke(new BasicStroke(3f));
-
-        g.draw(new Line2D.Double(origin.x, origin.y, tip.x, tip.y));
-
-        final var angle = dir.getAngle();
-        final var a = toRadians(30);
-        final var head = 8.0;
-        final var p1 = subtract(tip, byAngleSize(angle - a, head));
-        final var p2 = subtract(tip, byAngleSize(angle + a, head));
-        g.draw(new Line2D.Double(tip.x, tip.y, p1.x, p1.y));
-        g.draw(new Line2D.Double(tip.x, tip.y, p2.x, p2.y));
-
-        g.setComposite(oldComp);
-        g.setStroke(oldStroke);
-        g.setColor(oldColor);
-    }
-
     @Override
     public Car clone() {
         try {
+            // Clones are always detached from the store
             final var other = (Car) super.clone();
-            other.position = position.clone();
-            other.velocity = velocity.clone();
+            other.position = getPosition();
+            other.velocity = getVelocity();
+            other.lastSteering = getLastSteering();
+            other.store = null;
             return other;
         } catch (CloneNotSupportedException ignored) {
             return null;
@@ -200,9 +320,13 @@ public abstract class Car implements Cloneable {
     }
 
     public static double distance(Car car1, Car car2) {
-        return Vector2.distance(car1.position, car2.position);
+        final var dx = car1.x() - car2.x();
+        final var dy = car1.y() - car2.y();
+        return Math.sqrt(dx * dx + dy * dy);
     }
     public static double distanceself(Car car2,Vector2 car1 ) {
-        return Vector2.distance(car1, car2.position);
+        final var dx = car1.x - car2.x();
+        final var dy = car1.y - car2.y();
+        return Math.sqrt(dx * dx + dy * dy);
     }
 }
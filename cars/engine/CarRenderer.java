@@ -0,0 +1,309 @@
+package cars.engine;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Draws the cars of a snapshot, picking a level of detail for each frame.
+ * <p>
+ * From most to least detailed (and expensive):
+ * <ol>
+ * <li>{@link Lod#VECTOR}: the full F1 model;</li>
+ * <li>{@link Lod#SPRITE}: a blit from the {@link CarSprites} cache (a triangle while the sprite
+ * of a new color is not rendered yet);</li>
+ * <li>{@link Lod#TRIANGLE}: an oriented triangle, all cars of a color filled at once (colors are
+ * rounded to a palette of {@link #PALETTE_SIZE}, so there are few fills whatever the colors);</li>
+ * <li>{@link Lod#POINT}: a few pixels, written straight into an image.</li>
+ * </ol>
+ * The on-screen car size gives the most detailed level worth drawing: sprites look the same as
+ * the model unless zoomed in, and tiny cars are only triangles or points anyway. Then, if drawing
+ * all cars at that level is expected to take more than half the frame budget, cheaper levels are
+ * used. The cost of each level is measured as frames are drawn.
+ * <p>
+ * Not thread safe: use from the render thread only.
+ */
+final class CarRenderer {
+    enum Lod { VECTOR, SPRITE, TRIANGLE, POINT }
+
+    // Car length on screen, in pixels, below which each level is not worth it
+    private static final double MIN_TRIANGLE_PIXELS = 3;
+    private static final double MIN_SPRITE_PIXELS = 10;
+    private static final double CAR_LENGTH = 40;
+    private static final double CAR_WIDTH = 18;
+    private static final double POINT_PIXELS = 2;
+    // Half the sprite size, plus the length of a fast debug arrow
+    private static final double CULL_MARGIN = 100;
+    // Triangles keep the top bits of each color channel
+    private static final int PALETTE_BITS = 3;
+    static final int PALETTE_SIZE = 1 << (3 * PALETTE_BITS);
+
+    // Share of the frame budget cars may take, and the margin needed to go back to a detailed level
+    private static final double BUDGET_SHARE = 0.5;
+    private static final double HYSTERESIS = 0.5;
+    // Frames with fewer cars do not update the cost estimates: the timing would be mostly noise
+    private static final int MIN_MEASURED_CARS = 64;
+
+    private final CarSprites sprites = new CarSprites();
+    private final Lod forced;
+    private final long budgetNanos;
+
+    // Estimated nanoseconds to draw one car at each level
+    private final double[] costs = {20_000, 2_000, 400, 50};
+    private Lod current = Lod.SPRITE;
+
+    // Cars that passed culling this frame: snapshot index and interpolated position
+    private int[] visible = new int[0];
+    private double[] visibleX = new double[0];
+    private double[] visibleY = new double[0];
+    private int visibleCount;
+
+    // Image the point level is drawn into
+    private final AffineTransform identity = new AffineTransform();
+    private BufferedImage points;
+    private int[] pixels;
+
+    // One path per palette color for the triangles, reused between frames, and the ones used in this frame
+    private final Path2D.Float[] paths = new Path2D.Float[PALETTE_SIZE];
+    private final Color[] palette = new Color[PALETTE_SIZE];
+    private final int[] used = new int[PALETTE_SIZE];
+    private int usedCount;
+
+    /**
+     * @param fps    Target frame rate, used for the frame budget. 0 means 60.
+     * @param forced Level to always draw at, or null to choose it every frame.
+     */
+    CarRenderer(int fps, Lod forced) {
+        this.budgetNanos = (long) (1e9 / (fps > 0 ? fps : 60));
+        this.forced = forced;
+    }
+
+    /**
+     * Parses the level given as a system property value.
+     *
+     * @return The level, or null for "auto" (or no value).
+     */
+    static Lod parseLod(String value) {
+        if (value == null || value.equalsIgnoreCase("auto")) return null;
+        return Lod.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return The level used in the last frame.
+     */
+    Lod getLod() { return current; }
+
+    /**
+     * Draws the visible cars of the snapshot, interpolated between its two ticks.
+     * Cars outside the view are culled before any drawing work, and do not count for the level
+     * of detail.
+     *
+     * @param width  Width of the area being drawn, in pixels.
+     * @param height Height of the area being drawn, in pixels.
+     * @param view   The visible world rectangle.
+     * @param debug  Receives the debug arrows of each car, or null if they are not shown.
+     */
+    void draw(Graphics2D g, Snapshot snapshot, double alpha, int width, int height,
+              Rectangle2D view, DebugOverlay debug) {
+        cull(snapshot, alpha, view);
+
+        final var spritesSharp = sprites.prepare(g);
+        final var t = g.getTransform();
+        final var carPixels = CAR_LENGTH * Math.sqrt(Math.abs(t.getDeterminant()));
+        final var lod = choose(visibleCount, carPixels, spritesSharp);
+
+        final var start = System.nanoTime();
+        switch (lod) {
+            case VECTOR, SPRITE -> {
+                final var s = lod == Lod.SPRITE ? sprites : null;
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                resetPaths();
+                for (var v = 0; v < visibleCount; v++) {
+                    final var i = visible[v];
+                    if (!Car.draw(g, s, visibleX[v], visibleY[v], snapshot.vx[i], snapshot.vy[i], snapshot.colors[i])) {
+                        addTriangle(visibleX[v], visibleY[v], snapshot.vx[i], snapshot.vy[i], snapshot.colors[i]);
+                    }
+                }
+                fillPaths(g);
+            }
+            case TRIANGLE -> drawTriangles(g, snapshot);
+            case POINT -> drawPoints(g, snapshot, width, height);
+        }
+        measure(lod, visibleCount, System.nanoTime() - start);
+
+        if (debug != null) {
+            for (var v = 0; v < visibleCount; v++) {
+                final var i = visible[v];
+                debug.add(visibleX[v], visibleY[v], snapshot.vx[i], snapshot.vy[i], snapshot.fx[i], snapshot.fy[i]);
+            }
+        }
+    }
+
+    /**
+     * @return How many cars were visible in the last frame.
+     */
+    int getVisibleCount() { return visibleCount; }
+
+    // Keeps the cars whose bounds (plus the debug arrows) overlap the view, with their interpolated position
+    private void cull(Snapshot snapshot, double alpha, Rectangle2D view) {
+        if (visible.length < snapshot.count) {
+            visible = new int[snapshot.count];
+            visibleX = new double[snapshot.count];
+            visibleY = new double[snapshot.count];
+        }
+        final var minX = view.getMinX() - CULL_MARGIN;
+        final var minY = view.getMinY() - CULL_MARGIN;
+        final var maxX = view.getMaxX() + CULL_MARGIN;
+        final var maxY = view.getMaxY() + CULL_MARGIN;
+
+        var n = 0;
+        for (var i = 0; i < snapshot.count; i++) {
+            final var x = snapshot.x(i, alpha);
+            final var y = snapshot.y(i, alpha);
+            if (x < minX || x > maxX || y < minY || y > maxY) continue;
+            visible[n] = i;
+            visibleX[n] = x;
+            visibleY[n] = y;
+            n++;
+        }
+        visibleCount = n;
+    }
+
+    private Lod choose(int count, double carPixels, boolean spritesSharp) {
+        if (forced != null) return current = forced;
+
+        // Most detailed level worth it at this size
+        var lod = carPixels < MIN_TRIANGLE_PIXELS ? Lod.POINT
+            : carPixels < MIN_SPRITE_PIXELS ? Lod.TRIANGLE
+            : spritesSharp ? Lod.SPRITE
+            : Lod.VECTOR;
+
+        // Then the first one that fits the budget. Going back to a level more detailed than the
+        // current one needs some margin, so the level does not flicker at the threshold.
+        final var budget = budgetNanos * BUDGET_SHARE;
+        while (lod != Lod.POINT) {
+            final var margin = lod.ordinal() < current.ordinal() ? HYSTERESIS : 1.0;
+            if (count * costs[lod.ordinal()] <= budget * margin) break;
+            lod = Lod.values()[lod.ordinal() + 1];
+        }
+        return current = lod;
+    }
+
+    private void measure(Lod lod, int count, long nanos) {
+        if (count < MIN_MEASURED_CARS) return;
+        final var i = lod.ordinal();
+        // A single slow frame (rendering new sprites, GC) may at most double the estimate
+        final var sample = Math.min((double) nanos / count, costs[i] * 2);
+        costs[i] = costs[i] * 0.9 + sample * 0.1;
+    }
+
+    private void drawTriangles(Graphics2D g, Snapshot snapshot) {
+        resetPaths();
+        for (var v = 0; v < visibleCount; v++) {
+            final var i = visible[v];
+            addTriangle(visibleX[v], visibleY[v], snapshot.vx[i], snapshot.vy[i], snapshot.colors[i]);
+        }
+        fillPaths(g);
+    }
+
+    private void addTriangle(double x, double y, double vx, double vy, Color color) {
+        // Heading and its perpendicular, to the right if stopped
+        var dx = 1.0;
+        var dy = 0.0;
+        final var speedSqr = Vector2.sizeSqr(vx, vy);
+        if (speedSqr >= 1e-12) {
+            final var k = 1 / Math.sqrt(speedSqr);
+            dx = vx * k;
+            dy = vy * k;
+        }
+        final var fx = dx * CAR_LENGTH / 2;
+        final var fy = dy * CAR_LENGTH / 2;
+        final var sx = -dy * CAR_WIDTH / 2;
+        final var sy = dx * CAR_WIDTH / 2;
+
+        final var path = pathOf(color);
+        path.moveTo(x + fx, y + fy);
+        path.lineTo(x - fx + sx, y - fy + sy);
+        path.lineTo(x - fx - sx, y - fy - sy);
+        path.closePath();
+    }
+
+    // Points are written straight into an image in device space, that is then drawn in one blit
+    private void drawPoints(Graphics2D g, Snapshot snapshot, int width, int height) {
+        final var device = g.getDeviceConfiguration().getDefaultTransform();
+        final var w = (int) Math.ceil(width * device.getScaleX());
+        final var h = (int) Math.ceil(height * device.getScaleY());
+        if (points == null || points.getWidth() != w || points.getHeight() != h) {
+            points = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+            pixels = ((DataBufferInt) points.getRaster().getDataBuffer()).getData();
+        }
+        Arrays.fill(pixels, 0);
+
+        final var t = g.getTransform();
+        final var m00 = t.getScaleX();
+        final var m01 = t.getShearX();
+        final var m02 = t.getTranslateX();
+        final var m10 = t.getShearY();
+        final var m11 = t.getScaleY();
+        final var m12 = t.getTranslateY();
+        final var size = (int) Math.max(1, Math.round(POINT_PIXELS * device.getScaleX()));
+        for (var v = 0; v < visibleCount; v++) {
+            final var i = visible[v];
+            final var x = visibleX[v];
+            final var y = visibleY[v];
+            final var px = (int) Math.floor(m00 * x + m01 * y + m02) - size / 2;
+            final var py = (int) Math.floor(m10 * x + m11 * y + m12) - size / 2;
+            if (px + size <= 0 || py + size <= 0 || px >= w || py >= h) continue;
+
+            final var argb = snapshot.colors[i].getRGB() | 0xFF000000;
+            for (var yy = Math.max(0, py); yy < Math.min(h, py + size); yy++) {
+                Arrays.fill(pixels, yy * w + Math.max(0, px), yy * w + Math.min(w, px + size), argb);
+            }
+        }
+
+        g.setTransform(identity);
+        g.drawImage(points, 0, 0, null);
+        g.setTransform(t);
+    }
+
+    // ---- One path per palette color, filled at once ----
+
+    private void resetPaths() {
+        for (var u = 0; u < usedCount; u++) {
+            paths[used[u]].reset();
+        }
+        usedCount = 0;
+    }
+
+    private Path2D.Float pathOf(Color color) {
+        final var shift = 8 - PALETTE_BITS;
+        final var rgb = color.getRGB();
+        final var index = ((rgb >> 16 & 0xFF) >> shift) << (2 * PALETTE_BITS)
+            | ((rgb >> 8 & 0xFF) >> shift) << PALETTE_BITS
+            | (rgb & 0xFF) >> shift;
+        var path = paths[index];
+        if (path == null) {
+            path = paths[index] = new Path2D.Float();
+            // Spread over the full range, so black and the pure colors stay the same
+            final var max = (1 << PALETTE_BITS) - 1;
+            palette[index] = new Color(
+                (index >> (2 * PALETTE_BITS)) * 255 / max,
+                (index >> PALETTE_BITS & max) * 255 / max,
+                (index & max) * 255 / max);
+        }
+        if (path.getCurrentPoint() == null) used[usedCount++] = index;
+        return path;
+    }
+
+    private void fillPaths(Graphics2D g) {
+        for (var u = 0; u < usedCount; u++) {
+            g.setColor(palette[used[u]]);
+            g.fill(paths[used[u]]);
+        }
+    }
+}
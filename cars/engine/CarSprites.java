@@ -0,0 +1,114 @@
+package cars.engine;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of pre-rendered car images.
+ * <p>
+ * The F1 model is rendered into compatible images, one for each of {@link #ROTATIONS} headings
+ * of each color, the first time a car of that color is drawn with that heading. Drawing a car is
+ * then a single image blit, using the image of the closest heading.
+ * <p>
+ * Every car may have its own color, so the cache is bounded: it keeps the images of the
+ * {@link #MAX_COLORS} colors drawn most recently, and spends at most {@link #RENDER_NANOS_PER_FRAME}
+ * rendering new images in a frame (at least one image). Cars whose image is not ready are left
+ * to the caller, so a view full of new colors never stalls a frame.
+ * <p>
+ * Images are rendered at the car size: when zoomed in beyond
+ * {@link #MAX_ZOOM} they would look blurry, so callers should draw the vector model instead
+ * (see {@link #prepare(Graphics2D)}).
+ * <p>
+ * Not thread safe: use from the render thread only.
+ */
+final class CarSprites {
+    static final int ROTATIONS = 64;
+    static final double MAX_ZOOM = 1.5;
+    // Up to about 800 KB per color, once all its headings are rendered
+    static final int MAX_COLORS = 32;
+    // Rendering one image takes from tens of microseconds to over a millisecond, without acceleration
+    static final long RENDER_NANOS_PER_FRAME = 2_000_000;
+
+    // The 80px model is drawn at 50% and its front wing is 50px wide: a 56px square fits any rotation
+    private static final int SIZE = 56;
+    private static final double STEP = 2 * Math.PI / ROTATIONS;
+
+    // Least recently drawn color first
+    private final Map<Integer, BufferedImage[]> sprites = new LinkedHashMap<>(MAX_COLORS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage[]> eldest) {
+            return size() > MAX_COLORS;
+        }
+    };
+    private final AffineTransform blit = new AffineTransform();
+    private boolean translateOnly;
+    private long renderNanos; // spent rendering in this frame
+
+    /**
+     * Checks the transform of g, once per frame, before drawing cars.
+     *
+     * @return True if sprites look good under the current transform, i.e. it is not zoomed in too much.
+     */
+    boolean prepare(Graphics2D g) {
+        final var t = g.getTransform();
+        translateOnly = t.getType() == AffineTransform.TYPE_TRANSLATION || t.isIdentity();
+        renderNanos = 0;
+        return Math.hypot(t.getScaleX(), t.getShearY()) <= MAX_ZOOM;
+    }
+
+    /**
+     * Draws a car centered at (x, y), heading to the given angle.
+     *
+     * @return False if its image was not ready and this frame cannot render more: the car was not drawn.
+     */
+    boolean draw(Graphics2D g, double x, double y, double angle, Color color) {
+        final var bucket = Math.floorMod(Math.round(angle / STEP), ROTATIONS);
+        final var image = sprite(g, color, bucket);
+        if (image == null) return false;
+
+        if (translateOnly) {
+            // Fast path: unscaled blit at integer coordinates
+            g.drawImage(image, (int) Math.round(x - SIZE / 2.0), (int) Math.round(y - SIZE / 2.0), null);
+            return true;
+        }
+        blit.setToTranslation(x - SIZE / 2.0, y - SIZE / 2.0);
+        g.drawImage(image, blit, null);
+        return true;
+    }
+
+    // The image of a color and heading, rendered if the frame budget allows it, or null
+    private BufferedImage sprite(Graphics2D g, Color color, int bucket) {
+        final var rgb = color.getRGB();
+        var images = sprites.get(rgb);
+        if (images != null && images[bucket] != null) return images[bucket];
+        if (renderNanos >= RENDER_NANOS_PER_FRAME) return null;
+
+        if (images == null) {
+            images = new BufferedImage[ROTATIONS];
+            sprites.put(rgb, images);
+        }
+        final var start = System.nanoTime();
+        images[bucket] = render(g.getDeviceConfiguration(), color, bucket * STEP);
+        renderNanos += System.nanoTime() - start;
+        return images[bucket];
+    }
+
+    private static BufferedImage render(GraphicsConfiguration config, Color color, double angle) {
+        final var image = config.createCompatibleImage(SIZE, SIZE, Transparency.TRANSLUCENT);
+        final var g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+
+        // Same transform as the vector path in Car.draw, around the image center
+        g.translate(SIZE / 2.0, SIZE / 2.0);
+        g.rotate(angle);
+        g.scale(-0.5, 0.5);
+        Car.drawF1Car80px(g, color);
+
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,179 @@
+package cars.engine;
+
+import java.util.List;
+
+/**
+ * Structure-of-arrays storage for the car state.
+ * <p>
+ * Each car field lives in its own contiguous primitive column, indexed by the car slot.
+ * Attached cars become lightweight handles over their slot, and the integration step runs
+ * as a single loop over the columns instead of creating vectors for every car.
+ * <p>
+ * Position and velocity are double-buffered: integration reads the current columns and writes
+ * the next ones, that become current on {@link #swap()}. Ranges of slots can be integrated
+ * in parallel.
+ *
+ * @see #attach(List)
+ */
+public final class CarStore {
+    // Current state
+    double[] x;
+    double[] y;
+    double[] vx;
+    double[] vy;
+
+    // Next state, written by integrate()
+    private double[] nextX;
+    private double[] nextY;
+    private double[] nextVx;
+    private double[] nextVy;
+
+    final double[] mass;
+    final double[] maxForce;
+    final double[] maxSpeed;
+
+    // Last clamped steering (pre-dt), written by steer()
+    final double[] fx;
+    final double[] fy;
+
+    // True if the car returned a steering force this tick. Cars without one do not move.
+    final boolean[] steered;
+
+    // Built-in behavior of each car, or null, and its force, calculated in batches by steerBatch().
+    // Equal behaviors share the same instance, so runs are found by reference.
+    final BatchBehavior[] batch;
+    final double[] batchFx;
+    final double[] batchFy;
+
+    private final int size;
+
+    private CarStore(int size) {
+        this.size = size;
+        this.x = new double[size];
+        this.y = new double[size];
+        this.vx = new double[size];
+        this.vy = new double[size];
+        this.nextX = new double[size];
+        this.nextY = new double[size];
+        this.nextVx = new double[size];
+        this.nextVy = new double[size];
+        this.mass = new double[size];
+        this.maxForce = new double[size];
+        this.maxSpeed = new double[size];
+        this.fx = new double[size];
+        this.fy = new double[size];
+        this.steered = new boolean[size];
+        this.batch = new BatchBehavior[size];
+        this.batchFx = new double[size];
+        this.batchFy = new double[size];
+    }
+
+    /**
+     * Creates a store for the given cars, moving their state into it.
+     * The car at index i of the list is placed in slot i.
+     *
+     * @param cars Cars to attach. They must not be attached to another store.
+     * @return The new store.
+     */
+    public static CarStore attach(List<Car> cars) {
+        final var store = new CarStore(cars.size());
+        BatchBehavior previous = null;
+        for (var i = 0; i < cars.size(); i++) {
+            final var car = cars.get(i);
+            var behavior = car.getBatchBehavior();
+            if (behavior != null && behavior.equals(previous)) behavior = previous;
+            store.batch[i] = behavior;
+            previous = behavior;
+            car.attach(store, i);
+        }
+        return store;
+    }
+
+    public int size() { return size; }
+
+    void set(int slot, double x, double y, double vx, double vy,
+             double mass, double maxForce, double maxSpeed) {
+        this.x[slot] = x;
+        this.y[slot] = y;
+        this.vx[slot] = vx;
+        this.vy[slot] = vy;
+        this.mass[slot] = mass;
+        this.maxForce[slot] = maxForce;
+        this.maxSpeed[slot] = maxSpeed;
+    }
+
+    /**
+     * Records the steering force of a car, clamped to its max force.
+     *
+     * @param slot  The car slot.
+     * @param force The steering force, or null if the car should not move this tick.
+     */
+    void steer(int slot, Vector2 force) {
+        if (force == null) {
+            fx[slot] = 0;
+            fy[slot] = 0;
+            steered[slot] = false;
+            return;
+        }
+
+        var sx = force.x;
+        var sy = force.y;
+        final var max = maxForce[slot];
+        final var len2 = sx * sx + sy * sy;
+        if (len2 > max * max) {
+            final var k = 1.0 / Math.sqrt(len2);
+            sx = sx * k * max;
+            sy = sy * k * max;
+        }
+        fx[slot] = sx;
+        fy[slot] = sy;
+        steered[slot] = true;
+    }
+
+    /**
+     * Calculates the force of the cars with a {@link BatchBehavior} in the given slot range,
+     * one run of consecutive slots with the same behavior at a time.
+     *
+     * @param hasTarget False if there is no mouse: the forces are zero.
+     * @param hasWalls  True if the world has walls: the behaviors that need an open world are skipped.
+     */
+    void steerBatch(int from, int to, boolean hasTarget, double tx, double ty, boolean hasWalls) {
+        var i = from;
+        while (i < to) {
+            final var behavior = batch[i];
+            var end = i + 1;
+            while (end < to && batch[end] == behavior) end++;
+            if (behavior != null && !(hasWalls && behavior.needsOpenWorld())) {
+                behavior.steer(this, hasTarget, tx, ty, i, end);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Integrates the cars in the given slot range into the next state columns.
+     * Same math as the per-car path in Car.integrate: velocity += F*dt/m, clamped to maxSpeed,
+     * position += velocity*dt, then wraps around the world edges. Runs on the
+     * {@link SteeringKernels}.
+     *
+     * @param from   First slot (inclusive).
+     * @param to     Last slot (exclusive).
+     * @param secs   Seconds since last tick.
+     * @param width  World width.
+     * @param height World height.
+     */
+    void integrate(int from, int to, double secs, double width, double height) {
+        SteeringKernels.integrate(secs, width / 2.0, height / 2.0, x, y, vx, vy, fx, fy, mass, maxSpeed, steered,
+            nextX, nextY, nextVx, nextVy, from, to);
+    }
+
+    /**
+     * Makes the next state current. Call once all slots were integrated.
+     */
+    void swap() {
+        var t = x; x = nextX; nextX = t;
+        t = y; y = nextY; nextY = t;
+        t = vx; vx = nextVx; nextVx = t;
+        t = vy; vy = nextVy; nextVy = t;
+    }
+}
@@ -0,0 +1,309 @@
+package cars.engine;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The full state of a simulation, saved to a file so it can be resumed later.
+ * <p>
+ * All values are big-endian. The file is:
+ * <pre>
+ * header   magic (int), version (int), tick (long), world width and height (double),
+ *          whether there was a click (byte) and its position (double, double),
+ *          class count (int), then the length (short) and UTF-8 name of each car class,
+ *          car count (int)
+ * cars     class (short), color (int RGB), mass, max force, max speed (double),
+ *          position, velocity, last steering (double x and y each), steered (byte),
+ *          behavior state length (short) and the state written by {@link Car#writeState}
+ * </pre>
+ * Unlike a {@link Recording}, values are saved exactly, so a restored run goes on the same way
+ * (apart from the behaviors that use random numbers).
+ * <p>
+ * Files are written and read through a {@link FileChannel} in large blocks, one car after the
+ * other, so saving or loading only keeps a block in memory besides the cars. Cars are created
+ * again through their <code>(Color, double, double)</code> constructor, which every car class
+ * must have.
+ */
+public final class Checkpoint {
+    public static final int MAX_STATE_BYTES = 256;
+
+    static final int MAGIC = 0x434B5054; // "CKPT"
+    static final int VERSION = 1;
+
+    private static final int CAR_BYTES = 2 + 4 + 3 * 8 + 6 * 8 + 1 + 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final long tick;
+    private final double width;
+    private final double height;
+    private final Vector2 clickPos;
+    private final List<Car> cars;
+
+    private Checkpoint(long tick, double width, double height, Vector2 clickPos, List<Car> cars) {
+        this.tick = tick;
+        this.width = width;
+        this.height = height;
+        this.clickPos = clickPos;
+        this.cars = cars;
+    }
+
+    public long getTick() { return tick; }
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+    public Vector2 getClickPos() { return clickPos == null ? null : clickPos.clone(); }
+
+    /**
+     * @return The restored cars, detached from any store.
+     */
+    public List<Car> getCars() { return cars; }
+
+    // ---- Saving ----
+
+    /**
+     * Saves the state of the cars. Must not run while the cars are updated.
+     * <p>
+     * The file is written next to the target and then moved over it, so a failed save leaves
+     * the previous checkpoint in place.
+     *
+     * @throws IllegalArgumentException If a car class has no <code>(Color, double, double)</code> constructor.
+     */
+    static void write(Path file, long tick, double width, double height, Vector2 clickPos,
+                      List<Car> cars) throws IOException {
+        // Class table: the index of each car class, in order of first appearance
+        final var classIndex = new HashMap<Class<?>, Integer>();
+        final var classes = new ArrayList<Class<?>>();
+        final var carClasses = new short[cars.size()];
+        for (var i = 0; i < cars.size(); i++) {
+            final var type = cars.get(i).getClass();
+            var index = classIndex.get(type);
+            if (index == null) {
+                if (Car.factoryOf(type) == null) {
+                    throw new IllegalArgumentException(type.getName()
+                        + " cannot be saved: it has no public (Color, double, double) constructor");
+                }
+                if (classes.size() > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many car classes to save");
+                }
+                index = classes.size();
+                classIndex.put(type, index);
+                classes.add(type);
+            }
+            carClasses[i] = index.shortValue();
+        }
+
+        final var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final var channel = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            final var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(tick)
+                .putDouble(width).putDouble(height)
+                .put((byte) (clickPos != null ? 1 : 0))
+                .putDouble(clickPos != null ? clickPos.x : 0)
+                .putDouble(clickPos != null ? clickPos.y : 0)
+                .putInt(classes.size());
+            for (final var type : classes) {
+                final var name = type.getName().getBytes(StandardCharsets.UTF_8);
+                ensureRoom(channel, buffer, 2 + name.length);
+                buffer.putShort((short) name.length).put(name);
+            }
+            ensureRoom(channel, buffer, 4);
+            buffer.putInt(cars.size());
+
+            for (var i = 0; i < cars.size(); i++) {
+                final var car = cars.get(i);
+                ensureRoom(channel, buffer, CAR_BYTES + MAX_STATE_BYTES);
+                buffer.putShort(carClasses[i])
+                    .putInt(car.getColor().getRGB())
+                    .putDouble(car.getMass()).putDouble(car.getMaxForce()).putDouble(car.getMaxSpeed())
+                    .putDouble(car.x()).putDouble(car.y())
+                    .putDouble(car.vx()).putDouble(car.vy())
+                    .putDouble(car.fx()).putDouble(car.fy())
+                    .put((byte) (car.steered() ? 1 : 0));
+
+                // The behavior writes its state after the length, limited to MAX_STATE_BYTES
+                final var lengthAt = buffer.position();
+                final var stateAt = lengthAt + 2;
+                buffer.position(stateAt).limit(stateAt + MAX_STATE_BYTES);
+                car.writeState(buffer);
+                buffer.putShort(lengthAt, (short) (buffer.position() - stateAt)).limit(buffer.capacity());
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // ---- Loading ----
+
+    /**
+     * Loads a checkpoint, creating all its cars again.
+     *
+     * @throws IOException If the file cannot be read, is not a checkpoint, or names a car class
+     *                     that cannot be created.
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        try (final var channel = FileChannel.open(file, READ)) {
+            final var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip();
+            fill(channel, buffer, 4 + 4 + 8 + 8 + 8 + 1 + 8 + 8 + 4);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            final var version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+            final var tick = buffer.getLong();
+            final var width = buffer.getDouble();
+            final var height = buffer.getDouble();
+            final var hasClick = buffer.get() != 0;
+            final var clickX = buffer.getDouble();
+            final var clickY = buffer.getDouble();
+            final var clickPos = hasClick ? new Vector2(clickX, clickY) : null;
+
+            final var classCount = buffer.getInt();
+            if (classCount < 0) {
+                throw new IOException("Checkpoint is corrupt: " + classCount + " car classes");
+            }
+            final var factories = new MethodHandle[classCount];
+            for (var i = 0; i < factories.length; i++) {
+                fill(channel, buffer, 2);
+                final var name = new byte[buffer.getShort() & 0xFFFF];
+                fill(channel, buffer, name.length);
+                buffer.get(name);
+                factories[i] = factoryOf(new String(name, StandardCharsets.UTF_8));
+            }
+            fill(channel, buffer, 4);
+            final var count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException("Checkpoint is corrupt: " + count + " cars");
+            }
+
+            final var cars = new ArrayList<Car>(count);
+            final var saved = new SavedSettings();
+            Car.OVERRIDES.set(saved);
+            try {
+                for (var i = 0; i < count; i++) {
+                    fill(channel, buffer, CAR_BYTES);
+                    final var classIndex = buffer.getShort();
+                    if (classIndex < 0 || classIndex >= factories.length) {
+                        throw new IOException("Checkpoint is corrupt: car " + i + " has class " + classIndex);
+                    }
+                    final var factory = factories[classIndex];
+                    saved.rgb = buffer.getInt();
+                    saved.mass = buffer.getDouble();
+                    saved.maxForce = buffer.getDouble();
+                    saved.maxSpeed = buffer.getDouble();
+                    saved.x = buffer.getDouble();
+                    saved.y = buffer.getDouble();
+                    final var vx = buffer.getDouble();
+                    final var vy = buffer.getDouble();
+                    final var fx = buffer.getDouble();
+                    final var fy = buffer.getDouble();
+                    final var steered = buffer.get() != 0;
+                    final var stateLength = buffer.getShort() & 0xFFFF;
+                    if (stateLength > MAX_STATE_BYTES) {
+                        throw new IOException("Checkpoint is corrupt: car " + i + " has " + stateLength + " bytes of state");
+                    }
+
+                    final var car = create(factory, saved);
+                    car.restore(saved.x, saved.y, vx, vy, fx, fy, steered);
+
+                    // The behavior sees only its own bytes
+                    fill(channel, buffer, stateLength);
+                    final var end = buffer.position() + stateLength;
+                    final var limit = buffer.limit();
+                    buffer.limit(end);
+                    car.readState(buffer);
+                    buffer.limit(limit).position(end);
+                    cars.add(car);
+                }
+            } finally {
+                Car.OVERRIDES.remove();
+            }
+            return new Checkpoint(tick, width, height, clickPos, cars);
+        }
+    }
+
+    // Makes sure the buffer holds at least the given number of unread bytes
+    private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Checkpoint is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static MethodHandle factoryOf(String className) throws IOException {
+        final Class<? extends Car> type;
+        try {
+            type = Car.carClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown car class in checkpoint: " + className, e);
+        }
+        final var factory = type != null ? Car.factoryOf(type) : null;
+        if (factory == null) {
+            throw new IOException("Car class in checkpoint cannot be created: " + className);
+        }
+        return factory;
+    }
+
+    private static Car create(MethodHandle factory, SavedSettings saved) throws IOException {
+        try {
+            return (Car) factory.invokeExact(new Color(saved.rgb), saved.x, saved.y);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Could not create a car from the checkpoint", e);
+        }
+    }
+
+    // Puts back the saved color and limits, whatever the car constructor chose.
+    // Reused for all cars: the fields are set before each one is created.
+    private static final class SavedSettings implements Consumer<Settings> {
+        int rgb;
+        double mass;
+        double maxForce;
+        double maxSpeed;
+        double x;
+        double y;
+
+        @Override
+        public void accept(Settings settings) {
+            settings.rgb(rgb).mass(mass).maxForce(maxForce).maxSpeed(maxSpeed).position(x, y);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cars.engine;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+
+import static java.lang.Math.toRadians;
+
+/**
+ * Debug arrows of all cars in a frame.
+ * <p>
+ * Arrows are collected into one path per color while cars are drawn, and the paths are stroked
+ * at the end of the frame with a single composite, stroke and color change each.
+ * <p>
+ * Not thread safe: use from the render thread only.
+ */
+final class DebugOverlay {
+    private static final Color VELOCITY_COLOR = new Color(0, 0, 255);    // BLUE
+    private static final Color STEERING_COLOR = new Color(255, 69, 0);   // ORANGERED
+    private static final double VELOCITY_SCALE = 0.20;
+    private static final double STEERING_SCALE = 0.10;
+
+    private static final Composite COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.25f);
+    private static final Stroke STROKE = new BasicStroke(3f);
+    private static final double HEAD_SIZE = 8.0;
+    private static final double HEAD_ANGLE = toRadians(30);
+
+    private final Path2D.Double velocities = new Path2D.Double();
+    private final Path2D.Double steerings = new Path2D.Double();
+
+    /**
+     * Adds the velocity and steering arrows of a car. Both start slightly ahead of the car center.
+     */
+    void add(double x, double y, double vx, double vy, double fx, double fy) {
+        // Origin: position + direction * 12, or to the right if the car is stopped
+        var ox = x + 12;
+        var oy = y;
+        final var speedSqr = Vector2.sizeSqr(vx, vy);
+        if (speedSqr >= 1e-12) {
+            final var k = 12 / Math.sqrt(speedSqr);
+            ox = x + vx * k;
+            oy = y + vy * k;
+        }
+        addArrow(velocities, ox, oy, vx, vy, VELOCITY_SCALE);
+        addArrow(steerings, ox, oy, fx, fy, STEERING_SCALE);
+    }
+
+    private static void addArrow(Path2D.Double path, double ox, double oy, double vx, double vy, double scale) {
+        if (Vector2.sizeSqr(vx, vy) < 1e-12) return;
+
+        final var tipX = ox + vx * scale;
+        final var tipY = oy + vy * scale;
+        path.moveTo(ox, oy);
+        path.lineTo(tipX, tipY);
+
+        final var angle = Math.atan2(vy, vx);
+        path.moveTo(tipX, tipY);
+        path.lineTo(tipX - Math.cos(angle - HEAD_ANGLE) * HEAD_SIZE, tipY - Math.sin(angle - HEAD_ANGLE) * HEAD_SIZE);
+        path.moveTo(tipX, tipY);
+        path.lineTo(tipX - Math.cos(angle + HEAD_ANGLE) * HEAD_SIZE, tipY - Math.sin(angle + HEAD_ANGLE) * HEAD_SIZE);
+    }
+
+    /**
+     * Strokes all arrows added since the last call, then clears them.
+     */
+    void draw(Graphics2D g) {
+        final var oldComp = g.getComposite();
+        final var oldStroke = g.getStroke();
+        final var oldColor = g.getColor();
+
+        g.setComposite(COMPOSITE);
+        g.setStroke(STROKE);
+        g.setColor(VELOCITY_COLOR);
+        g.draw(velocities);
+        g.setColor(STEERING_COLOR);
+        g.draw(steerings);
+
+        g.setComposite(oldComp);
+        g.setStroke(oldStroke);
+        g.setColor(oldColor);
+
+        velocities.reset();
+        steerings.reset();
+    }
+}
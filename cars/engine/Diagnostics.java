@@ -0,0 +1,205 @@
+package cars.engine;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Non-blocking diagnostics channel.
+ * <p>
+ * Events are written into a bounded lock-free ring buffer and printed by a background daemon
+ * thread, so logging never waits for console I/O. Messages are templates (see
+ * {@link String#format}) with a few arguments, and are only formatted by the background thread:
+ * logging primitive arguments allocates nothing.
+ * <ul>
+ * <li>Events below the level given by {@code -Dcars.log} (INFO by default) are discarded;</li>
+ * <li>Each template may log {@value #RATE_LIMIT} events per second. The rest are counted, and the
+ * count is printed with the next event allowed;</li>
+ * <li>If the buffer is full, the event is dropped and counted.</li>
+ * </ul>
+ * Any thread may log.
+ */
+public final class Diagnostics {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final int RATE_LIMIT = 10;
+    private static final int RATE_SLOTS = 64;
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Run with -Dcars.log=DEBUG|INFO|WARN|ERROR to choose the least important level printed
+    private static final Level MIN_LEVEL = Level.valueOf(System.getProperty("cars.log", "INFO").toUpperCase(Locale.ROOT));
+
+    // Argument kinds
+    private static final int NONE = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLES = 2;
+    private static final int OBJECT = 3;
+
+    // ---- Ring buffer (bounded multi-producer queue, one consumer) ----
+    // A slot may be written when its sequence equals the tail position, and read once it is that plus one.
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static long head = 0; // Drain thread only
+
+    private static final Level[] levels = new Level[CAPACITY];
+    private static final String[] templates = new String[CAPACITY];
+    private static final String[] threads = new String[CAPACITY];
+    private static final int[] kinds = new int[CAPACITY];
+    private static final long[] longs = new long[CAPACITY];
+    private static final double[] firsts = new double[CAPACITY];
+    private static final double[] seconds = new double[CAPACITY];
+    private static final Object[] objects = new Object[CAPACITY];
+    private static final long[] suppressedCounts = new long[CAPACITY];
+
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long reportedDrops = 0; // Drain thread only
+
+    // ---- Rate limit ----
+    // Templates are hashed by identity into slots. Each slot packs the current second (high 32 bits)
+    // and how many events were let through in it (low 32 bits). Templates sharing a slot share the limit.
+    private static final AtomicLongArray windows = new AtomicLongArray(RATE_SLOTS);
+    private static final AtomicLongArray suppressed = new AtomicLongArray(RATE_SLOTS);
+
+    static {
+        for (var i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        final var drain = new Thread(Diagnostics::drainLoop, "diagnostics");
+        drain.setDaemon(true);
+        drain.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Diagnostics::drainAll, "diagnostics-flush"));
+    }
+
+    private Diagnostics() {}
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(MIN_LEVEL) >= 0;
+    }
+
+    public static void log(Level level, String template) {
+        offer(level, template, NONE, 0, 0, 0, null);
+    }
+
+    public static void log(Level level, String template, long arg) {
+        offer(level, template, LONG, arg, 0, 0, null);
+    }
+
+    public static void log(Level level, String template, double arg1, double arg2) {
+        offer(level, template, DOUBLES, 0, arg1, arg2, null);
+    }
+
+    /**
+     * Logs a message with an object argument. The object is formatted later, by another thread,
+     * so it must not change after being logged.
+     */
+    public static void log(Level level, String template, Object arg) {
+        offer(level, template, OBJECT, 0, 0, 0, arg);
+    }
+
+    /**
+     * @return How many events were lost because the buffer was full.
+     */
+    public static long dropped() { return dropped.get(); }
+
+    private static void offer(Level level, String template, int kind, long l, double d1, double d2, Object o) {
+        if (!isEnabled(level)) return;
+        final var rateSlot = System.identityHashCode(template) & (RATE_SLOTS - 1);
+        if (!acquire(rateSlot)) return;
+
+        var pos = tail.get();
+        while (true) {
+            final var i = (int) pos & MASK;
+            final var diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet(); // full: never wait for the drain thread
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        final var i = (int) pos & MASK;
+        levels[i] = level;
+        templates[i] = template;
+        threads[i] = Thread.currentThread().getName();
+        kinds[i] = kind;
+        longs[i] = l;
+        firsts[i] = d1;
+        seconds[i] = d2;
+        objects[i] = o;
+        suppressedCounts[i] = suppressed.getAndSet(rateSlot, 0);
+        sequences.set(i, pos + 1); // publishes the slot to the drain thread
+    }
+
+    // True if the template may log one more event this second
+    private static boolean acquire(int rateSlot) {
+        final var second = System.nanoTime() / 1_000_000_000L;
+        while (true) {
+            final var window = windows.get(rateSlot);
+            final var count = (int) window;
+            final long next;
+            if ((window >>> 32) != (second & 0xFFFFFFFFL)) {
+                next = (second << 32) | 1;
+            } else if (count < RATE_LIMIT) {
+                next = window + 1;
+            } else {
+                suppressed.incrementAndGet(rateSlot);
+                return false;
+            }
+            if (windows.compareAndSet(rateSlot, window, next)) return true;
+        }
+    }
+
+    // ---- Drain thread ----
+
+    private static void drainLoop() {
+        while (true) {
+            drainAll();
+            LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+        }
+    }
+
+    private static synchronized void drainAll() {
+        while (true) {
+            final var i = (int) head & MASK;
+            if (sequences.get(i) != head + 1) break;
+
+            print(i);
+            objects[i] = null;
+            sequences.set(i, head + CAPACITY); // frees the slot for the producers
+            head++;
+        }
+    }
+
+    private static void print(int i) {
+        final var level = levels[i];
+        final var out = level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        final var message = switch (kinds[i]) {
+            case LONG -> templates[i].formatted(longs[i]);
+            case DOUBLES -> templates[i].formatted(firsts[i], seconds[i]);
+            case OBJECT -> templates[i].formatted(objects[i]);
+            default -> templates[i];
+        };
+        out.printf("[%s %s] %s%n", level, threads[i], message);
+        if (suppressedCounts[i] > 0) {
+            out.printf("[%s %s] (%d similar messages suppressed)%n", level, threads[i], suppressedCounts[i]);
+        }
+        reportDrops(out);
+    }
+
+    private static void reportDrops(PrintStream out) {
+        final var drops = dropped.get();
+        if (drops != reportedDrops) {
+            out.printf("[WARN diagnostics] %d messages dropped%n", drops - reportedDrops);
+            reportedDrops = drops;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package cars.engine;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The walls of the map, as a signed distance field: for every pixel of the map image, the
+ * distance to the nearest wall, in pixels, and the direction that moves away from it.
+ * <p>
+ * A pixel is a wall when it is bright: the painted lines are white and yellow, the asphalt is
+ * gray. The distance is positive outside the walls and negative inside them, with the border
+ * at 0. The direction (the gradient of the distance) points out of the walls on both sides.
+ * <p>
+ * Building the field takes an exact Euclidean distance transform of the whole image, so it is
+ * done once, when the map is loaded, and cached to a file; after that, a query reads 4 pixels,
+ * whatever the map looks like. The map is stretched over the world, like the background image.
+ * <p>
+ * Immutable, so the cars may query it from any thread.
+ */
+public final class DistanceField {
+    // Channels at least this bright make a wall
+    private static final int WALL_BRIGHTNESS = 200;
+    // Gradients shorter than this have no direction (far from any wall, or right between two)
+    private static final double MIN_GRADIENT = 1e-6;
+    // Squared distance of the pixels that have none yet: finite, so the parabolas can still be compared
+    private static final double FAR = 1e20;
+
+    static final int MAGIC = 0x53444631; // "SDF1"
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+
+    private final int columns;
+    private final int rows;
+    private final float[] distance;
+    private final float[] gradientX;
+    private final float[] gradientY;
+
+    private DistanceField(int columns, int rows, float[] distance, float[] gradientX, float[] gradientY) {
+        this.columns = columns;
+        this.rows = rows;
+        this.distance = distance;
+        this.gradientX = gradientX;
+        this.gradientY = gradientY;
+    }
+
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+
+    /**
+     * @return True if the pixel of the map at the given color is a wall.
+     */
+    public static boolean isWall(int argb) {
+        final var alpha = argb >>> 24;
+        final var r = (argb >> 16) & 0xFF;
+        final var g = (argb >> 8) & 0xFF;
+        final var b = argb & 0xFF;
+        return alpha >= 128 && Math.max(r, Math.max(g, b)) >= WALL_BRIGHTNESS;
+    }
+
+    // ---- Queries ----
+
+    /**
+     * The distance from a point of the world to the nearest wall, and the direction that moves
+     * away from it. Points outside the world get the values of the nearest edge.
+     *
+     * @param x      Position, relative to the center of the world.
+     * @param y      Position, relative to the center of the world.
+     * @param width  World width, that the map is stretched over.
+     * @param height World height, that the map is stretched over.
+     * @param push   Receives the unit direction out of the walls, or zero if there is none.
+     *               May be null.
+     * @return The distance in world units: negative inside a wall.
+     */
+    public double distance(double x, double y, double width, double height, Vector2 push) {
+        // World units per pixel
+        final var sx = width / columns;
+        final var sy = height / rows;
+        final var u = Math.max(0, Math.min(columns - 1, (x + width / 2) / sx - 0.5));
+        final var v = Math.max(0, Math.min(rows - 1, (y + height / 2) / sy - 0.5));
+        final var c0 = (int) u;
+        final var r0 = (int) v;
+        final var c1 = Math.min(c0 + 1, columns - 1);
+        final var r1 = Math.min(r0 + 1, rows - 1);
+        final var tu = u - c0;
+        final var tv = v - r0;
+
+        // Bilinear, between the 4 nearest pixel centers
+        final var i00 = r0 * columns + c0;
+        final var i01 = r0 * columns + c1;
+        final var i10 = r1 * columns + c0;
+        final var i11 = r1 * columns + c1;
+        final var d = lerp(distance, i00, i01, i10, i11, tu, tv);
+        var gx = lerp(gradientX, i00, i01, i10, i11, tu, tv);
+        var gy = lerp(gradientY, i00, i01, i10, i11, tu, tv);
+
+        // The map is stretched: the direction and distance to a straight wall change with the scale
+        final var g = Math.sqrt(gx * gx + gy * gy);
+        if (g < MIN_GRADIENT) {
+            if (push != null) push.set(0, 0);
+            return d * (sx + sy) / 2;
+        }
+        gx = gx / g / sx;
+        gy = gy / g / sy;
+        final var len = Math.sqrt(gx * gx + gy * gy);
+        if (push != null) push.set(gx / len, gy / len);
+        return d / len;
+    }
+
+    private static double lerp(float[] values, int i00, int i01, int i10, int i11, double tu, double tv) {
+        final var top = values[i00] + (values[i01] - values[i00]) * tu;
+        final var bottom = values[i10] + (values[i11] - values[i10]) * tu;
+        return top + (bottom - top) * tv;
+    }
+
+    // ---- Building ----
+
+    /**
+     * The distance field of a map, read from the cache file if it was built from the same walls,
+     * or built and saved to it otherwise. A cache that cannot be written is only logged.
+     *
+     * @param image The map.
+     * @param cache The cache file, or null to always build.
+     */
+    public static DistanceField load(BufferedImage image, Path cache) {
+        final var start = System.nanoTime();
+        final var walls = walls(image);
+        final var key = key(walls);
+        if (cache != null && Files.exists(cache)) {
+            try {
+                final var field = read(cache, image.getWidth(), image.getHeight(), key);
+                if (field != null) {
+                    Diagnostics.log(Diagnostics.Level.INFO, "Distance field read in %d ms", (System.nanoTime() - start) / 1_000_000);
+                    return field;
+                }
+            } catch (IOException e) {
+                Diagnostics.log(Diagnostics.Level.WARN, "Could not read the distance field cache: %s", e.getMessage());
+            }
+        }
+
+        final var field = build(image.getWidth(), image.getHeight(), walls);
+        Diagnostics.log(Diagnostics.Level.INFO, "Distance field built in %d ms", (System.nanoTime() - start) / 1_000_000);
+        if (cache != null) {
+            try {
+                field.write(cache, key);
+            } catch (IOException e) {
+                Diagnostics.log(Diagnostics.Level.WARN, "Could not write the distance field cache: %s", e.getMessage());
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Builds the distance field of a map, without a cache.
+     */
+    public static DistanceField of(BufferedImage image) {
+        return build(image.getWidth(), image.getHeight(), walls(image));
+    }
+
+    private static boolean[] walls(BufferedImage image) {
+        final var columns = image.getWidth();
+        final var rows = image.getHeight();
+        final var pixels = image.getRGB(0, 0, columns, rows, null, 0, columns);
+        final var walls = new boolean[pixels.length];
+        for (var i = 0; i < pixels.length; i++) {
+            walls[i] = isWall(pixels[i]);
+        }
+        return walls;
+    }
+
+    // Identifies the walls the cache was built from
+    private static long key(boolean[] walls) {
+        final var bits = new byte[(walls.length + 7) / 8];
+        for (var i = 0; i < walls.length; i++) {
+            if (walls[i]) bits[i >> 3] |= (byte) (1 << (i & 7));
+        }
+        final var crc = new CRC32();
+        crc.update(bits);
+        return crc.getValue();
+    }
+
+    private static DistanceField build(int columns, int rows, boolean[] walls) {
+        final var n = columns * rows;
+        // Squared distance from every free pixel to the nearest wall, and from every wall to the nearest free pixel
+        final var toWall = new double[n];
+        final var toFree = new double[n];
+        for (var i = 0; i < n; i++) {
+            toWall[i] = walls[i] ? 0 : FAR;
+            toFree[i] = walls[i] ? FAR : 0;
+        }
+        transform(toWall, columns, rows);
+        transform(toFree, columns, rows);
+
+        // Pixel centers next to the border are half a pixel away from it. Maps without walls
+        // (or without free space) get the image diagonal instead of infinity.
+        final var far = Math.sqrt((double) columns * columns + (double) rows * rows);
+        final var distance = new float[n];
+        for (var i = 0; i < n; i++) {
+            distance[i] = walls[i]
+                ? (float) -(Math.min(far, Math.sqrt(toFree[i])) - 0.5)
+                : (float) (Math.min(far, Math.sqrt(toWall[i])) - 0.5);
+        }
+
+        // Central differences (one-sided at the edges), normalized
+        final var gradientX = new float[n];
+        final var gradientY = new float[n];
+        for (var r = 0; r < rows; r++) {
+            for (var c = 0; c < columns; c++) {
+                final var left = Math.max(c - 1, 0);
+                final var right = Math.min(c + 1, columns - 1);
+                final var up = Math.max(r - 1, 0);
+                final var down = Math.min(r + 1, rows - 1);
+                final var gx = right == left ? 0 : (distance[r * columns + right] - distance[r * columns + left]) / (right - left);
+                final var gy = down == up ? 0 : (distance[down * columns + c] - distance[up * columns + c]) / (down - up);
+                final var g = Math.sqrt(gx * gx + gy * gy);
+                if (g < MIN_GRADIENT) continue;
+                gradientX[r * columns + c] = (float) (gx / g);
+                gradientY[r * columns + c] = (float) (gy / g);
+            }
+        }
+        return new DistanceField(columns, rows, distance, gradientX, gradientY);
+    }
+
+    // Squared Euclidean distance transform in place (Felzenszwalb and Huttenlocher): every
+    // column, then every row, each a lower envelope of parabolas in linear time
+    private static void transform(double[] grid, int columns, int rows) {
+        final var longest = Math.max(columns, rows);
+        final var f = new double[longest];
+        final var d = new double[longest];
+        final var v = new int[longest];
+        final var z = new double[longest + 1];
+        for (var c = 0; c < columns; c++) {
+            for (var r = 0; r < rows; r++) f[r] = grid[r * columns + c];
+            transform(f, rows, d, v, z);
+            for (var r = 0; r < rows; r++) grid[r * columns + c] = d[r];
+        }
+        for (var r = 0; r < rows; r++) {
+            System.arraycopy(grid, r * columns, f, 0, columns);
+            transform(f, columns, d, v, z);
+            System.arraycopy(d, 0, grid, r * columns, columns);
+        }
+    }
+
+    private static void transform(double[] f, int n, double[] d, int[] v, double[] z) {
+        var k = 0;
+        v[0] = 0;
+        z[0] = Double.NEGATIVE_INFINITY;
+        z[1] = Double.POSITIVE_INFINITY;
+        for (var q = 1; q < n; q++) {
+            var s = intersection(f, q, v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = intersection(f, q, v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        k = 0;
+        for (var q = 0; q < n; q++) {
+            while (z[k + 1] < q) k++;
+            final var dq = q - v[k];
+            d[q] = dq * dq + f[v[k]];
+        }
+    }
+
+    // Where the parabolas from q and p cross
+    private static double intersection(double[] f, int q, int p) {
+        return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+    }
+
+    // ---- Cache ----
+    // Big-endian: magic (int), version (int), columns (int), rows (int), walls key (long),
+    // then the distances, the gradient x and the gradient y of every pixel (float), row by row
+
+    private void write(Path file, long key) throws IOException {
+        final var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        final var n = columns * rows;
+        try (final var channel = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 3L * 4 * n);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(rows).putLong(key);
+            final var floats = buffer.asFloatBuffer();
+            floats.put(distance, 0, n).put(gradientX, 0, n).put(gradientY, 0, n);
+            buffer.force();
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Null if the cache is from another map, or an older version
+    private static DistanceField read(Path file, int columns, int rows, long key) throws IOException {
+        final var n = columns * rows;
+        try (final var channel = FileChannel.open(file, READ)) {
+            if (channel.size() != HEADER_BYTES + 3L * 4 * n) return null;
+            final var header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != columns || header.getInt() != rows || header.getLong() != key) {
+                return null;
+            }
+
+            final var floats = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 3L * 4 * n).asFloatBuffer();
+            final var distance = new float[n];
+            final var gradientX = new float[n];
+            final var gradientY = new float[n];
+            floats.get(distance).get(gradientX).get(gradientY);
+            return new DistanceField(columns, rows, distance, gradientX, gradientY);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package cars.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Shared directions towards a target, around the walls: flow fields.
+ * <p>
+ * The world is split into a grid of cells. For a target, one pass from the target cell (Dijkstra,
+ * 8 neighbors, no corner cutting) finds how far every cell is from it around the walls of the
+ * {@link DistanceField}, and which neighbor goes there fastest. A second, approximate, line of
+ * sight pass in the same order marks the cells that see the target: a cell sees it when the
+ * cells next to it, on the way to the target, do. Cars in those cells go straight to the exact
+ * target; the others follow the neighbors. Without walls, every cell sees the target.
+ * <p>
+ * A field is only built when a car asks for a target cell no field has, and is shared by all
+ * cars asking for a target in that cell, so following it costs the same for any number of cars.
+ * A target that moves (like the mouse) only rebuilds the field when it changes cells, and fields
+ * not asked for in the previous tick give their buffers to the new ones.
+ */
+final class FlowFields {
+    // Cells are at least this large, and there are at most MAX_CELLS of them
+    private static final double MIN_CELL_SIZE = 16;
+    private static final int MAX_CELLS = 1 << 16;
+    // Cells whose center is this close to a wall (in cell sizes) are blocked: over half the diagonal
+    private static final double CLEARANCE = 0.75;
+    // Step costs, in tenths of a cell
+    private static final int STRAIGHT = 10;
+    private static final int DIAGONAL = 14;
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * The cells of the world, and which of them are blocked by walls.
+     */
+    static final class Layout {
+        final double width;
+        final double height;
+        final DistanceField walls;
+        final double cellSize;
+        final int columns;
+        final int rows;
+        final boolean[] blocked;
+
+        Layout(double width, double height, DistanceField walls) {
+            this.width = width;
+            this.height = height;
+            this.walls = walls;
+            this.cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt(width * height / MAX_CELLS));
+            this.columns = Math.max(1, (int) Math.ceil(width / cellSize));
+            this.rows = Math.max(1, (int) Math.ceil(height / cellSize));
+            this.blocked = new boolean[columns * rows];
+            if (walls == null) return;
+            for (var r = 0; r < rows; r++) {
+                for (var c = 0; c < columns; c++) {
+                    final var x = (c + 0.5) * cellSize - width / 2;
+                    final var y = (r + 0.5) * cellSize - height / 2;
+                    blocked[r * columns + c] = walls.distance(x, y, width, height, null) < CLEARANCE * cellSize;
+                }
+            }
+        }
+
+        boolean fits(double width, double height, DistanceField walls) {
+            return this.width == width && this.height == height && this.walls == walls;
+        }
+
+        int cellOf(double x, double y) {
+            final var c = Math.max(0, Math.min(columns - 1, (int) Math.floor((x + width / 2) / cellSize)));
+            final var r = Math.max(0, Math.min(rows - 1, (int) Math.floor((y + height / 2) / cellSize)));
+            return r * columns + c;
+        }
+    }
+
+    /**
+     * The way to one target cell from every cell of a layout.
+     */
+    static final class Field {
+        private Layout layout;
+        private int target = -1;
+        private long lastAsked;          // written without synchronization: only a hint
+        private int[] cost = new int[0]; // tenths of a cell, or UNREACHABLE
+        private boolean[] visible = new boolean[0];
+        private float[] dirX = new float[0];
+        private float[] dirY = new float[0];
+
+        /**
+         * The direction from (x, y) towards (tx, ty), a point of the target cell, and the distance
+         * along the way.
+         *
+         * @param dest Receives the unit direction, or zero at the target.
+         */
+        double sample(double x, double y, double tx, double ty, Vector2 dest) {
+            final var cell = layout.cellOf(x, y);
+            if (visible[cell] || (dirX[cell] == 0 && dirY[cell] == 0)) {
+                // Straight to the target (also the way out for the cells no way leads from)
+                return straight(x, y, tx, ty, dest);
+            }
+            dest.set(dirX[cell], dirY[cell]);
+            return cost[cell] * layout.cellSize / STRAIGHT;
+        }
+    }
+
+    private volatile Layout layout;
+    private volatile Field[] fields = new Field[0];
+    private volatile long tick = -1;
+    // Fields that were not asked for, with buffers to reuse; only touched while synchronized
+    private final ArrayList<Field> spare = new ArrayList<>();
+    // Dijkstra queue: cost in the high half, cell in the low half. Only used while synchronized.
+    private long[] queue = new long[64];
+
+    /**
+     * Starts a new tick over a world of the given size and walls. Must be called before the cars steer.
+     */
+    synchronized void prepare(long tick, double width, double height, DistanceField walls) {
+        this.tick = tick;
+        final var fields = this.fields;
+        if (layout == null || !layout.fits(width, height, walls)) {
+            layout = new Layout(width, height, walls);
+            spare.addAll(Arrays.asList(fields));
+            this.fields = new Field[0];
+            return;
+        }
+        var kept = 0;
+        for (final var field : fields) {
+            if (field.lastAsked >= tick - 1) {
+                fields[kept++] = field;
+            } else {
+                spare.add(field);
+            }
+        }
+        if (kept < fields.length) this.fields = Arrays.copyOf(fields, kept);
+    }
+
+    /**
+     * The direction from (x, y) towards (tx, ty) around the walls, and the distance along the way.
+     * Safe to call from the steering threads.
+     *
+     * @param dest Receives the unit direction, or zero at the target.
+     */
+    double sample(double x, double y, double tx, double ty, Vector2 dest) {
+        final var layout = this.layout;
+        final var target = layout.cellOf(tx, ty);
+        for (final var field : fields) {
+            if (field.target == target && field.layout == layout) {
+                field.lastAsked = tick;
+                return field.sample(x, y, tx, ty, dest);
+            }
+        }
+        return build(layout, target).sample(x, y, tx, ty, dest);
+    }
+
+    // First use of a target cell: built on the calling thread, that may be a pool worker already
+    private synchronized Field build(Layout layout, int target) {
+        for (final var field : fields) {
+            if (field.target == target && field.layout == layout) return field;
+        }
+        final var field = spare.isEmpty() ? new Field() : spare.remove(spare.size() - 1);
+        calculate(field, layout, target);
+        field.lastAsked = tick;
+
+        final var fields = Arrays.copyOf(this.fields, this.fields.length + 1);
+        fields[fields.length - 1] = field;
+        this.fields = fields;
+        return field;
+    }
+
+    private void calculate(Field field, Layout layout, int target) {
+        final var columns = layout.columns;
+        final var rows = layout.rows;
+        final var n = columns * rows;
+        if (field.cost.length < n) {
+            field.cost = new int[n];
+            field.visible = new boolean[n];
+            field.dirX = new float[n];
+            field.dirY = new float[n];
+        }
+        final var cost = field.cost;
+        final var visible = field.visible;
+        final var blocked = layout.blocked;
+        Arrays.fill(cost, 0, n, UNREACHABLE);
+        Arrays.fill(visible, 0, n, false);
+        final var tc = target % columns;
+        final var tr = target / columns;
+
+        // Dijkstra from the target. A cell sees the target when the cells next to it on the way
+        // there, already done since they are closer, see it too.
+        var size = 0;
+        cost[target] = 0;
+        queue[size++] = target;
+        while (size > 0) {
+            final var head = queue[0];
+            queue[0] = queue[--size];
+            siftDown(size);
+            final var cell = (int) head;
+            final var d = (int) (head >>> 32);
+            if (d > cost[cell]) continue; // stale entry
+
+            final var c = cell % columns;
+            final var r = cell / columns;
+            visible[cell] = cell == target || sees(visible, blocked, columns, c, r, tc - c, tr - r);
+
+            for (var dr = -1; dr <= 1; dr++) {
+                for (var dc = -1; dc <= 1; dc++) {
+                    if (!step(blocked, columns, rows, c, r, dc, dr)) continue;
+                    final var next = (r + dr) * columns + c + dc;
+                    final var nd = d + (dc != 0 && dr != 0 ? DIAGONAL : STRAIGHT);
+                    if (nd >= cost[next]) continue;
+                    cost[next] = nd;
+                    if (size == queue.length) queue = Arrays.copyOf(queue, size * 2);
+                    queue[size] = (long) nd << 32 | next;
+                    siftUp(size++);
+                }
+            }
+        }
+
+        // Cells that do not see the target go to their closest neighbor. Blocked cells have no
+        // cost of their own, so cars that ended up in one also leave it this way.
+        for (var r = 0; r < rows; r++) {
+            for (var c = 0; c < columns; c++) {
+                final var cell = r * columns + c;
+                var best = cost[cell];
+                var bx = 0;
+                var by = 0;
+                for (var dr = -1; dr <= 1; dr++) {
+                    for (var dc = -1; dc <= 1; dc++) {
+                        if (!inside(columns, rows, c + dc, r + dr) || (dc == 0 && dr == 0)) continue;
+                        if (dc != 0 && dr != 0 && (blocked[r * columns + c + dc] || blocked[(r + dr) * columns + c])) continue;
+                        final var neighbor = cost[(r + dr) * columns + c + dc];
+                        if (neighbor < best) {
+                            best = neighbor;
+                            bx = dc;
+                            by = dr;
+                        }
+                    }
+                }
+                final var k = bx != 0 && by != 0 ? 1 / Math.sqrt(2) : 1;
+                field.dirX[cell] = (float) (bx * k);
+                field.dirY[cell] = (float) (by * k);
+            }
+        }
+        field.layout = layout;
+        field.target = target;
+    }
+
+    // If the move from (c, r) to (c + dc, r + dr) stays in the grid, on free cells, without cutting a blocked corner
+    private static boolean step(boolean[] blocked, int columns, int rows, int c, int r, int dc, int dr) {
+        if ((dc == 0 && dr == 0) || !inside(columns, rows, c + dc, r + dr)) return false;
+        if (blocked[(r + dr) * columns + c + dc]) return false;
+        return dc == 0 || dr == 0 || (!blocked[r * columns + c + dc] && !blocked[(r + dr) * columns + c]);
+    }
+
+    // Approximate line of sight: the line to the target (dc, dr cells away) leaves (c, r) through
+    // the straight neighbor towards its longer axis and may cross the diagonal one
+    private static boolean sees(boolean[] visible, boolean[] blocked, int columns, int c, int r, int dc, int dr) {
+        if (blocked[r * columns + c]) return false;
+        final var sc = Integer.signum(dc);
+        final var sr = Integer.signum(dr);
+        final var ac = Math.abs(dc);
+        final var ar = Math.abs(dr);
+        if (ar == 0) return visible[r * columns + c + sc];
+        if (ac == 0) return visible[(r + sr) * columns + c];
+        final var diagonal = visible[(r + sr) * columns + c + sc];
+        if (ac > ar) return diagonal && visible[r * columns + c + sc];
+        if (ar > ac) return diagonal && visible[(r + sr) * columns + c];
+        return diagonal && visible[r * columns + c + sc] && visible[(r + sr) * columns + c];
+    }
+
+    private static boolean inside(int columns, int rows, int c, int r) {
+        return c >= 0 && c < columns && r >= 0 && r < rows;
+    }
+
+    private void siftUp(int i) {
+        final var value = queue[i];
+        while (i > 0) {
+            final var parent = (i - 1) >>> 1;
+            if (queue[parent] <= value) break;
+            queue[i] = queue[parent];
+            i = parent;
+        }
+        queue[i] = value;
+    }
+
+    private void siftDown(int size) {
+        if (size == 0) return;
+        final var value = queue[0];
+        var i = 0;
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && queue[child + 1] < queue[child]) child++;
+            if (value <= queue[child]) break;
+            queue[i] = queue[child];
+            i = child;
+        }
+        queue[i] = value;
+    }
+
+    /**
+     * The straight way from (x, y) to (tx, ty), for worlds without flow fields.
+     *
+     * @param dest Receives the unit direction, or zero at the target.
+     * @return The distance.
+     */
+    static double straight(double x, double y, double tx, double ty, Vector2 dest) {
+        final var dx = tx - x;
+        final var dy = ty - y;
+        final var d2 = dx * dx + dy * dy;
+        if (d2 < Vector2.ZERO_SQR) {
+            dest.set(0, 0);
+            return 0;
+        }
+        final var d = Math.sqrt(d2);
+        dest.set(dx / d, dy / d);
+        return d;
+    }
+}
@@ -0,0 +1,72 @@
+package cars.engine;
+
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a target rate.
+ * <p>
+ * Each iteration has a deadline, one period after the previous one, kept in
+ * {@link System#nanoTime()} units so timer resolution errors do not add up. Waiting is hybrid:
+ * the thread sleeps while the deadline is far, parks for the last couple of milliseconds
+ * (finer than sleep on most systems) and spins for the last few microseconds.
+ * <p>
+ * An iteration that ends after its deadline is late. The loop does not try to catch up with
+ * the lost time: the next deadline is counted from the late iteration.
+ * <p>
+ * Not thread safe: use from the paced thread only.
+ */
+final class FramePacer {
+    // Sleep overshoots by up to ~1ms on most systems, so stop sleeping this far from the deadline
+    private static final long SLEEP_SLACK_NANOS = 2_000_000;
+    // parkNanos overshoots by up to ~50us, so spin the rest
+    private static final long SPIN_NANOS = 100_000;
+
+    private final long periodNanos;
+    private long deadline = 0;
+
+    /**
+     * @param rate Target iterations per second, or 0 to run as fast as possible.
+     */
+    FramePacer(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        this.periodNanos = rate == 0 ? 0 : Math.max(1, Math.round(1e9 / rate));
+    }
+
+    /**
+     * Waits for the end of the current period. Call once at the end of each iteration.
+     *
+     * @return True if the iteration was late, and so there was nothing to wait for.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    boolean await() throws InterruptedException {
+        if (periodNanos == 0) {
+            // Unpaced: just let other threads run
+            Thread.yield();
+            if (Thread.interrupted()) throw new InterruptedException();
+            return false;
+        }
+
+        final var now = System.nanoTime();
+        deadline = (deadline == 0 ? now : deadline) + periodNanos;
+        if (now - deadline >= 0) {
+            deadline = now;
+            return true;
+        }
+
+        var remaining = deadline - now;
+        if (remaining > SLEEP_SLACK_NANOS) {
+            Thread.sleep(Duration.ofNanos(remaining - SLEEP_SLACK_NANOS));
+        }
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+}
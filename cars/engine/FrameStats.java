@@ -0,0 +1,113 @@
+package cars.engine;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of every phase of the simulation and render loops.
+ * <p>
+ * Each loop measures its phases with {@link System#nanoTime()} and records them once per
+ * iteration; the intervals between iterations show stutters that happen outside the phases
+ * (sleeping, GC, scheduling). Once {@link #register() registered}, the stats can be read from
+ * any JMX client (e.g. JConsole, VisualVM) under {@value #OBJECT_NAME}.
+ */
+public final class FrameStats implements FrameStatsMXBean {
+    public static final String OBJECT_NAME = "cars.engine:type=FrameStats";
+
+    private final LatencyHistogram step = new LatencyHistogram();
+    private final LatencyHistogram publish = new LatencyHistogram();
+    private final LatencyHistogram tickInterval = new LatencyHistogram();
+    private final LatencyHistogram draw = new LatencyHistogram();
+    private final LatencyHistogram sync = new LatencyHistogram();
+    private final LatencyHistogram show = new LatencyHistogram();
+    private final LatencyHistogram frameInterval = new LatencyHistogram();
+
+    // Iterations that missed the deadline of their pacer
+    private final AtomicLong lateTicks = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+
+    private volatile int carCount;
+
+    // Start of the previous iteration of each loop, 0 before the first one. Owned by each loop thread.
+    private long lastTickStart;
+    private long lastFrameStart;
+
+    /**
+     * Records one simulation tick. Simulation thread only.
+     *
+     * @param start     When the tick started.
+     * @param stepped   When the cars finished moving.
+     * @param published When the snapshot was handed to the renderer.
+     */
+    void recordTick(long start, long stepped, long published) {
+        step.record(stepped - start);
+        publish.record(published - stepped);
+        if (lastTickStart != 0) tickInterval.record(start - lastTickStart);
+        lastTickStart = start;
+    }
+
+    /**
+     * Records one rendered frame. Render thread only.
+     *
+     * @param start  When the frame started.
+     * @param drawn  When the frame was drawn in the back buffer.
+     * @param synced When the toolkit sync returned.
+     * @param shown  When the back buffer was shown.
+     */
+    void recordFrame(long start, long drawn, long synced, long shown) {
+        draw.record(drawn - start);
+        sync.record(synced - drawn);
+        show.record(shown - synced);
+        if (lastFrameStart != 0) frameInterval.record(start - lastFrameStart);
+        lastFrameStart = start;
+    }
+
+    void countLateTick() { lateTicks.incrementAndGet(); }
+    void countLateFrame() { lateFrames.incrementAndGet(); }
+
+    void setCarCount(int carCount) { this.carCount = carCount; }
+
+    /**
+     * Registers these stats on the platform MBean server, as {@value #OBJECT_NAME}.
+     * Does nothing if other stats were already registered under that name.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // Another simulation in this process already publishes its stats
+        } catch (JMException e) {
+            Diagnostics.log(Diagnostics.Level.WARN, "Could not register frame stats: %s", e.getMessage());
+        }
+    }
+
+    @Override public long getTicks() { return step.count(); }
+    @Override public long getFrames() { return draw.count(); }
+    @Override public long getLateTicks() { return lateTicks.get(); }
+    @Override public long getLateFrames() { return lateFrames.get(); }
+    @Override public int getCarCount() { return carCount; }
+
+    @Override public LatencyHistogram.Summary getStep() { return step.summary(); }
+    @Override public LatencyHistogram.Summary getPublish() { return publish.summary(); }
+    @Override public LatencyHistogram.Summary getTickInterval() { return tickInterval.summary(); }
+    @Override public LatencyHistogram.Summary getDraw() { return draw.summary(); }
+    @Override public LatencyHistogram.Summary getSync() { return sync.summary(); }
+    @Override public LatencyHistogram.Summary getShow() { return show.summary(); }
+    @Override public LatencyHistogram.Summary getFrameInterval() { return frameInterval.summary(); }
+
+    @Override
+    public void reset() {
+        step.reset();
+        publish.reset();
+        tickInterval.reset();
+        draw.reset();
+        sync.reset();
+        show.reset();
+        frameInterval.reset();
+        lateTicks.set(0);
+        lateFrames.set(0);
+    }
+}
@@ -0,0 +1,26 @@
+package cars.engine;
+
+/**
+ * Management interface of {@link FrameStats}, registered as {@value FrameStats#OBJECT_NAME}.
+ * All durations are in nanoseconds.
+ */
+public interface FrameStatsMXBean {
+    long getTicks();
+    long getFrames();
+    long getLateTicks();
+    long getLateFrames();
+    int getCarCount();
+
+    // Simulation loop
+    LatencyHistogram.Summary getStep();
+    LatencyHistogram.Summary getPublish();
+    LatencyHistogram.Summary getTickInterval();
+
+    // Render loop
+    LatencyHistogram.Summary getDraw();
+    LatencyHistogram.Summary getSync();
+    LatencyHistogram.Summary getShow();
+    LatencyHistogram.Summary getFrameInterval();
+
+    void reset();
+}
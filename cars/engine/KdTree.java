@@ -0,0 +1,280 @@
+package cars.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 2-d tree over the car positions, for nearest neighbor queries.
+ * <p>
+ * The tree is rebuilt in bulk once per tick, either eagerly with {@link #rebuild(List)}, or
+ * lazily by the first query after {@link #invalidate(List)}, so ticks where no car asks for its
+ * nearest neighbors do not pay for it. It is stored implicitly in arrays: each range of
+ * cars is split at its median, that becomes the node, alternating between x (even depths) and
+ * y (odd depths). Building takes O(N log N), and the k nearest cars are found in about
+ * O(log N + k) by only visiting the subtrees that may hold a closer car than the k-th best so far.
+ */
+public final class KdTree {
+    private int count;
+    private Car[] entries = new Car[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    // Cars to rebuild from on the next query, if the tree is stale
+    private List<Car> pending;
+    private volatile boolean stale = false;
+
+    // Per-thread candidate heap, so queries may run in parallel without allocating
+    private static final ThreadLocal<Heap> HEAPS = ThreadLocal.withInitial(Heap::new);
+
+    public int size() {
+        ensureBuilt();
+        return count;
+    }
+
+    /**
+     * Marks the tree as stale. The first query afterwards rebuilds it from the given cars, that
+     * must not move until then.
+     *
+     * @param cars The cars in the simulation.
+     */
+    public void invalidate(List<Car> cars) {
+        this.pending = cars;
+        this.stale = true;
+    }
+
+    private void ensureBuilt() {
+        if (!stale) return;
+        synchronized (this) {
+            if (stale) {
+                rebuild(pending);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the tree. Must be called once per tick, before any query.
+     *
+     * @param cars The cars in the simulation.
+     */
+    public void rebuild(List<Car> cars) {
+        pending = null;
+        count = cars.size();
+        if (entries.length < count) {
+            final var capacity = Math.max(count, entries.length + (entries.length >> 1));
+            entries = new Car[capacity];
+            xs = new double[capacity];
+            ys = new double[capacity];
+        }
+        for (var i = 0; i < count; i++) {
+            final var car = cars.get(i);
+            entries[i] = car;
+            xs[i] = car.x();
+            ys[i] = car.y();
+        }
+        Arrays.fill(entries, count, entries.length, null);
+        build(0, count, 0);
+        stale = false;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            final var mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, depth & 1);
+            // Recurse on the smaller half, loop on the other: the stack stays O(log N)
+            if (mid - lo < hi - mid - 1) {
+                build(lo, mid, depth + 1);
+                lo = mid + 1;
+            } else {
+                build(mid + 1, hi, depth + 1);
+                hi = mid;
+            }
+            depth++;
+        }
+    }
+
+    // Quickselect: moves the k-th smallest coordinate of [lo, hi] to k, smaller ones before it and
+    // larger ones after it. Three-way partitions, so many cars on the same line do not make it quadratic.
+    private void select(int lo, int hi, int k, int axis) {
+        final var keys = axis == 0 ? xs : ys;
+        while (hi > lo) {
+            // Median of three pivot
+            final var a = keys[lo];
+            final var b = keys[(lo + hi) >>> 1];
+            final var c = keys[hi];
+            final var pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+            // [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi] > pivot
+            var lt = lo;
+            var gt = hi;
+            var i = lo;
+            while (i <= gt) {
+                if (keys[i] < pivot) swap(lt++, i++);
+                else if (keys[i] > pivot) swap(i, gt--);
+                else i++;
+            }
+
+            if (k < lt) hi = lt - 1;
+            else if (k > gt) lo = gt + 1;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final var c = entries[i]; entries[i] = entries[j]; entries[j] = c;
+        final var x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+        final var y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+    }
+
+    /**
+     * Returns the k cars closest to the given car, excluding the car itself.
+     *
+     * @param current The car in the center of the query.
+     * @param k       Maximum number of cars returned.
+     * @return A new list with the cars, closest first.
+     */
+    public List<Car> nearest(Car current, int k) {
+        final var result = new ArrayList<Car>(Math.max(0, Math.min(k, size())));
+        nearest(current.x(), current.y(), k, current, null, result);
+        return result;
+    }
+
+    /**
+     * Adds to the result the k cars closest to (x, y), closest first.
+     *
+     * @param x       Query center x.
+     * @param y       Query center y.
+     * @param k       Maximum number of cars added.
+     * @param exclude A car to leave out of the result, or null.
+     * @param type    Only cars of this type are considered, or null for all cars.
+     * @param result  The list to add the cars to.
+     */
+    public void nearest(double x, double y, int k, Car exclude, Class<?> type, List<Car> result) {
+        ensureBuilt();
+        if (k <= 0 || count == 0) return;
+        final var heap = HEAPS.get().reset(k);
+        search(0, count, 0, x, y, exclude, type, heap);
+        heap.drainTo(entries, result);
+    }
+
+    private void search(int lo, int hi, int depth, double x, double y, Car exclude, Class<?> type, Heap heap) {
+        while (lo < hi) {
+            final var mid = (lo + hi) >>> 1;
+            final var car = entries[mid];
+            if (car != exclude && (type == null || type.isInstance(car))) {
+                final var dx = xs[mid] - x;
+                final var dy = ys[mid] - y;
+                heap.offer(dx * dx + dy * dy, mid);
+            }
+
+            // Search the side of the split the point is in first, then the other one if it may
+            // still hold something closer than the worst candidate.
+            final var d = (depth & 1) == 0 ? x - xs[mid] : y - ys[mid];
+            if (d < 0) {
+                search(lo, mid, depth + 1, x, y, exclude, type, heap);
+                if (!heap.mayAccept(d * d)) return;
+                lo = mid + 1;
+            } else {
+                search(mid + 1, hi, depth + 1, x, y, exclude, type, heap);
+                if (!heap.mayAccept(d * d)) return;
+                hi = mid;
+            }
+            depth++;
+        }
+    }
+
+    /**
+     * Linear version of {@link #nearest(double, double, int, Car, Class, List)}, for when no tree
+     * was built.
+     */
+    static void nearest(List<Car> cars, double x, double y, int k, Car exclude, Class<?> type, List<Car> result) {
+        if (k <= 0) return;
+        final var heap = HEAPS.get().reset(k);
+        for (var i = 0; i < cars.size(); i++) {
+            final var car = cars.get(i);
+            if (car != exclude && (type == null || type.isInstance(car))) {
+                final var dx = car.x() - x;
+                final var dy = car.y() - y;
+                heap.offer(dx * dx + dy * dy, i);
+            }
+        }
+        heap.drainTo(cars, result);
+    }
+
+    // Bounded max-heap of the best k candidates so far, by squared distance
+    private static final class Heap {
+        private double[] dists = new double[16];
+        private int[] indices = new int[16];
+        private int size;
+        private int k;
+
+        Heap reset(int k) {
+            if (dists.length < k) {
+                dists = new double[k];
+                indices = new int[k];
+            }
+            this.size = 0;
+            this.k = k;
+            return this;
+        }
+
+        boolean mayAccept(double dist) {
+            return size < k || dist < dists[0];
+        }
+
+        void offer(double dist, int index) {
+            if (size < k) {
+                // Sift up
+                var i = size++;
+                while (i > 0) {
+                    final var parent = (i - 1) >>> 1;
+                    if (dists[parent] >= dist) break;
+                    dists[i] = dists[parent];
+                    indices[i] = indices[parent];
+                    i = parent;
+                }
+                dists[i] = dist;
+                indices[i] = index;
+            } else if (dist < dists[0]) {
+                siftDown(dist, index, size);
+            }
+        }
+
+        // Replaces the root and sifts it down within the first n entries
+        private void siftDown(double dist, int index, int n) {
+            var i = 0;
+            while (true) {
+                var child = 2 * i + 1;
+                if (child >= n) break;
+                if (child + 1 < n && dists[child + 1] > dists[child]) child++;
+                if (dists[child] <= dist) break;
+                dists[i] = dists[child];
+                indices[i] = indices[child];
+                i = child;
+            }
+            dists[i] = dist;
+            indices[i] = index;
+        }
+
+        // Heap sort in place (largest to the back), then adds the cars closest first
+        void drainTo(Car[] cars, List<Car> result) {
+            sort();
+            for (var i = 0; i < size; i++) result.add(cars[indices[i]]);
+        }
+
+        void drainTo(List<Car> cars, List<Car> result) {
+            sort();
+            for (var i = 0; i < size; i++) result.add(cars.get(indices[i]));
+        }
+
+        private void sort() {
+            for (var n = size - 1; n > 0; n--) {
+                final var dist = dists[n];
+                final var index = indices[n];
+                dists[n] = dists[0];
+                indices[n] = indices[0];
+                siftDown(dist, index, n);
+            }
+        }
+    }
+}
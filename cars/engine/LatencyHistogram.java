@@ -0,0 +1,159 @@
+package cars.engine;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split in 8 sub-buckets, so
+ * percentiles are reported with at most 12.5% error, while the whole range of a long fits in
+ * less than 500 buckets. Recording is a single atomic increment, so any number of threads may
+ * record while another one reads the percentiles.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration. Negative durations are counted as 0.
+     *
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        final var v = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(v));
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * @return How many durations were recorded since the last reset.
+     */
+    public long count() {
+        var total = 0L;
+        for (var b = 0; b < BUCKETS; b++) {
+            total += counts.get(b);
+        }
+        return total;
+    }
+
+    /**
+     * @return The longest duration recorded since the last reset.
+     */
+    public long max() { return max.get(); }
+
+    /**
+     * Returns the given percentile, rounded up to the end of its bucket.
+     *
+     * @param p The percentile, between 0 and 1 (e.g. 0.99 for p99).
+     * @return The duration, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long percentile(double p) {
+        return summary(new double[] {p})[0];
+    }
+
+    /**
+     * @return The current count, p50, p99, p99.9 and max.
+     */
+    public Summary summary() {
+        final var values = summary(new double[] {0.50, 0.99, 0.999});
+        return new Summary(values[3], values[0], values[1], values[2], max());
+    }
+
+    // Returns the percentiles, followed by the count they were computed from
+    private long[] summary(double[] ps) {
+        // Copy first, so all percentiles come from the same counts
+        final var copy = new long[BUCKETS];
+        var total = 0L;
+        for (var b = 0; b < BUCKETS; b++) {
+            copy[b] = counts.get(b);
+            total += copy[b];
+        }
+
+        final var result = new long[ps.length + 1];
+        result[ps.length] = total;
+        if (total == 0) return result;
+
+        final var max = max();
+        for (var i = 0; i < ps.length; i++) {
+            final var rank = Math.max(1, (long) Math.ceil(Math.clamp(ps[i], 0.0, 1.0) * total));
+            var seen = 0L;
+            for (var b = 0; b < BUCKETS; b++) {
+                seen += copy[b];
+                if (seen >= rank) {
+                    result[i] = Math.min(upperBoundOf(b), max);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clears all recorded durations. Concurrent recordings may be kept or lost.
+     */
+    public void reset() {
+        for (var b = 0; b < BUCKETS; b++) {
+            counts.set(b, 0);
+        }
+        max.set(0);
+    }
+
+    // Values below 8 get a bucket each. Above, the bucket is given by the highest bit and the
+    // 3 bits that follow it.
+    private static int bucketOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        final var exp = 63 - Long.numberOfLeadingZeros(v);
+        final var sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        final var exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        final var sub = bucket % SUB_BUCKETS;
+        final var width = 1L << (exp - SUB_BITS);
+        final var lower = (long) (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+        return lower + (width - 1) < 0 ? Long.MAX_VALUE : lower + (width - 1);
+    }
+
+    /**
+     * Percentiles of a histogram at some point in time, in nanoseconds.
+     * Shown as a composite value by JMX clients.
+     */
+    public static final class Summary {
+        private final long count;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        @ConstructorProperties({"count", "p50", "p99", "p999", "max"})
+        public Summary(long count, long p50, long p99, long p999, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() { return count; }
+        public long getP50() { return p50; }
+        public long getP99() { return p99; }
+        public long getP999() { return p999; }
+        public long getMax() { return max; }
+
+        @Override
+        public String toString() {
+            return "n=%d p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms"
+                .formatted(count, p50 / 1e6, p99 / 1e6, p999 / 1e6, max / 1e6);
+        }
+    }
+}
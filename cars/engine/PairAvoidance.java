@@ -0,0 +1,206 @@
+package cars.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Avoidance forces of all cars, calculated one pair of cars at a time.
+ * <p>
+ * The repulsion between two cars is the same from both sides, with the opposite sign. Instead of
+ * every car adding up the repulsion of its neighbors, each pair within the radius is found and
+ * calculated once, and added to one car and subtracted from the other: half the distances,
+ * square roots and divisions.
+ * <p>
+ * The pass runs in parallel over horizontal bands at least one radius high, so a pair is never
+ * more than one band apart. Even bands go first, then odd ones: two bands running at the same
+ * time never write to the same car.
+ * <p>
+ * The simulation keeps one field of forces per (radius, factor) asked for. A field is calculated
+ * the first time it is asked for in a tick; fields asked for in the previous tick are calculated
+ * in parallel before the cars steer.
+ */
+final class PairAvoidance {
+    // Fields not asked for in this many ticks are dropped
+    private static final int MAX_IDLE_TICKS = 120;
+    // Bands per thread, so threads finishing early can take another
+    private static final int BANDS_PER_THREAD = 4;
+
+    /**
+     * The avoidance force of every car, indexed like the car list, for one (radius, factor).
+     */
+    static final class Field {
+        final double radius;
+        final double factor;
+        private double[] fx = new double[0];
+        private double[] fy = new double[0];
+        private volatile long tick = -1;   // tick the forces were calculated for
+        private long lastAsked;            // written without synchronization: only a hint
+
+        Field(double radius, double factor) {
+            this.radius = radius;
+            this.factor = factor;
+        }
+
+        Vector2 get(int index, Vector2 dest) {
+            return dest.set(fx[index], fy[index]);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private volatile Field[] fields = new Field[0];
+    private SpatialGrid grid;
+    private volatile long tick = -1;
+
+    // Scratch buffers for the bands, reused between passes
+    private int[] slotBand = new int[0];
+    private int[] order = new int[0];
+    private int[] bandStart = new int[0];
+
+    /**
+     * @param pool Pool the precalculated fields run on, or null to run on the calling thread.
+     */
+    PairAvoidance(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Starts a new tick over the given grid, that must have been rebuilt for it. Calculates the
+     * fields asked for in the previous tick. Must be called before the cars steer.
+     */
+    synchronized void prepare(SpatialGrid grid, long tick) {
+        this.grid = grid;
+        this.tick = tick;
+        final var fields = this.fields;
+        var kept = 0;
+        for (final var field : fields) {
+            if (tick - field.lastAsked > MAX_IDLE_TICKS) continue;
+            fields[kept++] = field;
+            if (field.lastAsked == tick - 1) calculate(field, pool);
+        }
+        if (kept < fields.length) this.fields = Arrays.copyOf(fields, kept);
+    }
+
+    /**
+     * The field for the given radius and factor, calculated for the current tick.
+     * Safe to call from the steering threads.
+     */
+    Field get(double radius, double factor) {
+        final var tick = this.tick;
+        for (final var field : fields) {
+            if (field.radius == radius && field.factor == factor) {
+                field.lastAsked = tick;
+                if (field.tick == tick) return field;
+                break;
+            }
+        }
+        return calculateNow(radius, factor);
+    }
+
+    // First use in this tick: calculated on the calling thread, that may be a pool worker already.
+    // Looked up again here, since another thread may have added or calculated it meanwhile.
+    private synchronized Field calculateNow(double radius, double factor) {
+        Field field = null;
+        for (final var f : fields) {
+            if (f.radius == radius && f.factor == factor) {
+                field = f;
+                break;
+            }
+        }
+        if (field == null) {
+            field = new Field(radius, factor);
+            final var fields = Arrays.copyOf(this.fields, this.fields.length + 1);
+            fields[fields.length - 1] = field;
+            this.fields = fields;
+        }
+        field.lastAsked = tick;
+        if (field.tick != tick) calculate(field, null);
+        return field;
+    }
+
+    private void calculate(Field field, ForkJoinPool pool) {
+        final var n = grid.size();
+        if (field.fx.length < n) {
+            field.fx = new double[n];
+            field.fy = new double[n];
+        } else {
+            Arrays.fill(field.fx, 0, n, 0);
+            Arrays.fill(field.fy, 0, n, 0);
+        }
+
+        final var parallel = pool != null && pool.getParallelism() > 1;
+        final var bands = splitBands(n, field.radius, parallel ? pool.getParallelism() * BANDS_PER_THREAD : 1);
+        if (!parallel || bands < 3) {
+            grid.pairRepulsion(order, 0, n, slotBand, field.radius, field.factor, field.fx, field.fy);
+        } else {
+            pool.invoke(new BandTask(field, 0, bands));
+            pool.invoke(new BandTask(field, 1, bands));
+        }
+        field.tick = tick;
+    }
+
+    // Sorts the grid slots by band (counting sort) and returns the band count
+    private int splitBands(int n, double radius, int wanted) {
+        var minY = Double.POSITIVE_INFINITY;
+        var maxY = Double.NEGATIVE_INFINITY;
+        for (var s = 0; s < n; s++) {
+            final var y = grid.slotY(s);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        final var height = Math.max(radius, (maxY - minY) / wanted);
+        final var bands = n == 0 || height <= 0 ? 1 : (int) ((maxY - minY) / height) + 1;
+
+        if (slotBand.length < n) {
+            slotBand = new int[n];
+            order = new int[n];
+        }
+        if (bandStart.length < bands + 1) bandStart = new int[bands + 1];
+        Arrays.fill(bandStart, 0, bands + 1, 0);
+        for (var s = 0; s < n; s++) {
+            final var band = bands == 1 ? 0 : Math.min(bands - 1, (int) ((grid.slotY(s) - minY) / height));
+            slotBand[s] = band;
+            bandStart[band + 1]++;
+        }
+        for (var b = 0; b < bands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        for (var s = 0; s < n; s++) {
+            order[bandStart[slotBand[s]]++] = s;
+        }
+        System.arraycopy(bandStart, 0, bandStart, 1, bands);
+        bandStart[0] = 0;
+        return bands;
+    }
+
+    // Runs the bands first, first + 2, first + 4... in parallel.
+    // Never serialized (ForkJoinTask is Serializable, but a task only lives for one invoke).
+    @SuppressWarnings("serial")
+    private final class BandTask extends RecursiveAction {
+        private final Field field;
+        private final int first;
+        private final int bands;
+
+        BandTask(Field field, int first, int bands) {
+            this.field = field;
+            this.first = first;
+            this.bands = bands;
+        }
+
+        @Override
+        protected void compute() {
+            final var tasks = new RecursiveAction[(bands - first + 1) / 2];
+            for (var i = 0; i < tasks.length; i++) {
+                final var band = first + 2 * i;
+                tasks[i] = new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        grid.pairRepulsion(order, bandStart[band], bandStart[band + 1], slotBand,
+                            field.radius, field.factor, field.fx, field.fy);
+                    }
+                };
+            }
+            invokeAll(tasks);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package cars.engine;
+
+import java.util.Arrays;
+
+/**
+ * A path through a list of points, for cars to follow.
+ * <p>
+ * The length of each segment and the distance along the path to each point are calculated once,
+ * when the path is created, so finding the point at a given distance along the path does not
+ * walk the segments. A loop goes back from the last point to the first one.
+ * <p>
+ * Immutable, so any number of cars may share a path. Each car keeps its own {@link Cursor}: the
+ * segment it is on and how far along the path it is. Cursors look for the car near their last
+ * segment, so following a path costs the same whatever its length.
+ */
+public final class Path {
+    private final boolean loop;
+    private final double[] x;
+    private final double[] y;
+    // Distance along the path to the start of each segment; the last value is the path length
+    private final double[] start;
+
+    private Path(boolean loop, Vector2... points) {
+        if (points.length < 2) {
+            throw new IllegalArgumentException("A path needs at least 2 points");
+        }
+        this.loop = loop;
+        final var count = points.length;
+        final var segments = loop ? count : count - 1;
+        this.x = new double[segments + 1];
+        this.y = new double[segments + 1];
+        this.start = new double[segments + 1];
+        for (var i = 0; i <= segments; i++) {
+            final var point = points[i % count];
+            x[i] = point.x;
+            y[i] = point.y;
+            if (i > 0) start[i] = start[i - 1] + Math.sqrt(squared(x[i] - x[i - 1], y[i] - y[i - 1]));
+        }
+    }
+
+    /**
+     * A path that ends at the last point. The points are copied.
+     */
+    public static Path open(Vector2... points) {
+        return new Path(false, points);
+    }
+
+    /**
+     * A path that goes back from the last point to the first one, and starts over. The points are copied.
+     */
+    public static Path loop(Vector2... points) {
+        return new Path(true, points);
+    }
+
+    public boolean isLoop() { return loop; }
+
+    /**
+     * @return Number of segments: one less than the points, or as many in a loop.
+     */
+    public int getSegmentCount() { return start.length - 1; }
+
+    /**
+     * @return Total length of the path, including the segment back to the start of a loop.
+     */
+    public double getLength() { return start[start.length - 1]; }
+
+    public double getSegmentLength(int segment) {
+        return start[segment + 1] - start[segment];
+    }
+
+    /**
+     * @return Distance along the path to the start of the segment.
+     */
+    public double getSegmentStart(int segment) {
+        return start[segment];
+    }
+
+    /**
+     * The point at the given distance along the path. Loops go around; open paths stop at their ends.
+     *
+     * @param dest The vector that receives the point.
+     * @return dest.
+     */
+    public Vector2 getPointAt(double distance, Vector2 dest) {
+        distance = wrap(distance);
+        // Binary search of the segment: the last one that starts at or before the distance
+        final var found = Arrays.binarySearch(start, distance);
+        final var segment = Math.min(getSegmentCount() - 1, found >= 0 ? found : -found - 2);
+        return pointOn(segment, distance, dest);
+    }
+
+    /**
+     * @return A new cursor at the start of the path.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Loops go around; open paths are clamped to their ends
+    private double wrap(double distance) {
+        final var length = getLength();
+        if (loop) {
+            distance %= length;
+            return distance < 0 ? distance + length : distance;
+        }
+        return Math.max(0, Math.min(length, distance));
+    }
+
+    private Vector2 pointOn(int segment, double distance, Vector2 dest) {
+        final var length = getSegmentLength(segment);
+        final var t = length == 0 ? 0 : Math.max(0, Math.min(1, (distance - start[segment]) / length));
+        return dest.set(x[segment] + (x[segment + 1] - x[segment]) * t, y[segment] + (y[segment + 1] - y[segment]) * t);
+    }
+
+    // Fraction of the segment where its nearest point to (px, py) is, from 0 to 1
+    private double project(int segment, double px, double py) {
+        final var dx = x[segment + 1] - x[segment];
+        final var dy = y[segment + 1] - y[segment];
+        final var length2 = squared(dx, dy);
+        if (length2 == 0) return 0;
+        return Math.max(0, Math.min(1, ((px - x[segment]) * dx + (py - y[segment]) * dy) / length2));
+    }
+
+    // Squared distance from (px, py) to the segment
+    private double distance2(int segment, double px, double py) {
+        final var t = project(segment, px, py);
+        return squared(x[segment] + (x[segment + 1] - x[segment]) * t - px,
+            y[segment] + (y[segment + 1] - y[segment]) * t - py);
+    }
+
+    private static double squared(double dx, double dy) {
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * How far one car is along a path.
+     * <p>
+     * Each projection starts from the segment of the previous one and moves on while the next
+     * segment is at least as close to the car. Cars move a little each tick, so that is usually
+     * zero or one step. Since the cursor only moves forward, it is never taken back by a part of
+     * the path that crosses or runs over an earlier one.
+     * <p>
+     * Not thread safe: each car keeps its own.
+     */
+    public final class Cursor {
+        private int segment = 0;
+        private double distance = 0;
+
+        private Cursor() {}
+
+        public Path getPath() { return Path.this; }
+        public int getSegment() { return segment; }
+
+        /**
+         * @return Distance along the path of the last projection.
+         */
+        public double getDistance() { return distance; }
+
+        /**
+         * @return True if the last projection reached the end of an open path. Loops never end.
+         */
+        public boolean isAtEnd() {
+            return !loop && distance >= getLength();
+        }
+
+        /**
+         * Moves the cursor to the given distance along the path, for example to restore a saved one.
+         */
+        public void setDistance(double distance) {
+            this.distance = wrap(distance);
+            final var found = Arrays.binarySearch(start, this.distance);
+            this.segment = Math.min(getSegmentCount() - 1, found >= 0 ? found : -found - 2);
+        }
+
+        /**
+         * Moves the cursor back to the start of the path.
+         */
+        public void reset() {
+            segment = 0;
+            distance = 0;
+        }
+
+        /**
+         * Moves the cursor to the point of the path nearest to (px, py), near its last segment.
+         *
+         * @return The distance along the path of that point.
+         */
+        public double project(double px, double py) {
+            final var segments = getSegmentCount();
+            var best = distance2(segment, px, py);
+            // At most one lap, so a loop where every segment is as close stops
+            for (var steps = 1; steps < segments; steps++) {
+                final var next = segment + 1;
+                if (next == segments && !loop) break;
+                final var nextSegment = next % segments;
+                final var d2 = distance2(nextSegment, px, py);
+                if (d2 > best) break;
+                best = d2;
+                segment = nextSegment;
+            }
+            distance = start[segment] + Path.this.project(segment, px, py) * getSegmentLength(segment);
+            return distance;
+        }
+
+        /**
+         * Moves the cursor to the point of the path nearest to (px, py), looking at every segment.
+         * For when the car jumped: it is slower than {@link #project}.
+         *
+         * @return The distance along the path of that point.
+         */
+        public double relocate(double px, double py) {
+            var best = Double.POSITIVE_INFINITY;
+            for (var s = 0; s < getSegmentCount(); s++) {
+                final var d2 = distance2(s, px, py);
+                if (d2 < best) {
+                    best = d2;
+                    segment = s;
+                }
+            }
+            distance = start[segment] + Path.this.project(segment, px, py) * getSegmentLength(segment);
+            return distance;
+        }
+
+        /**
+         * Projects (px, py) on the path and finds the point some distance further along it: the
+         * target of a car following the path.
+         *
+         * @param ahead How far along the path the target is from the projection.
+         * @param dest  The vector that receives the target.
+         * @return dest.
+         */
+        public Vector2 lookahead(double px, double py, double ahead, Vector2 dest) {
+            final var target = project(px, py) + ahead;
+            // Walks from the cursor segment: the target is usually on it or the next one
+            final var segments = getSegmentCount();
+            final var length = getLength();
+            var s = segment;
+            var d = target;
+            for (var steps = 0; steps < segments && d > start[s + 1]; steps++) {
+                if (s + 1 == segments) {
+                    if (!loop) break;
+                    s = 0;
+                    d -= length;
+                } else {
+                    s++;
+                }
+            }
+            return pointOn(s, d, dest);
+        }
+    }
+}
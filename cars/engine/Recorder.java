@@ -0,0 +1,158 @@
+package cars.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static cars.engine.Recording.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Writes the state of every published tick to a file, in the compact {@link Recording} format.
+ * <p>
+ * The file is memory-mapped in segments, so recording a tick is a copy into memory: the
+ * operating system writes it to disk in the background. The tick index is written on
+ * {@link #close()}; a recording that was not closed can still be replayed, by scanning it.
+ */
+public final class Recorder implements AutoCloseable {
+    private final FileChannel channel;
+    private final Path file;
+
+    // The start of the file, to keep the data end up to date
+    private final MappedByteBuffer header;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long position;
+    private boolean closed = false;
+    // Set when a tick could not be recorded: later ones are not either, but close() still writes the index
+    private boolean stopped = false;
+
+    private long firstNanos = -1;
+    private long[] ticks = new long[1024];
+    private long[] offsets = new long[1024];
+    private int records = 0;
+
+    /**
+     * Creates (or replaces) a recording.
+     *
+     * @param file   The file to write.
+     * @param colors The color of each car, in order.
+     * @throws IOException If the file cannot be created.
+     */
+    public Recorder(Path file, int[] colors) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, COLORS_POSITION);
+        map(0);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(0).putInt(colors.length);
+        for (final var color : colors) {
+            segment.putInt(color);
+        }
+        position = segment.position();
+        header.putLong(DATA_END_POSITION, position);
+    }
+
+    public Path getFile() { return file; }
+
+    /**
+     * Appends a tick. Ticks must be recorded in order.
+     */
+    synchronized void record(Snapshot s) {
+        if (closed || stopped) return;
+        final var size = recordBytes(s.count);
+        if (size > SEGMENT_SIZE) {
+            // A tick must fit in one segment. Stop recording rather than the simulation.
+            Diagnostics.log(Diagnostics.Level.ERROR, "Recording stopped: too many cars to record (%d)", s.count);
+            stopped = true;
+            return;
+        }
+        try {
+            if (position + size > segmentStart + SEGMENT_SIZE) {
+                // Tells a scan of an unclosed recording that the rest of the segment is padding
+                if (position + RECORD_HEADER_BYTES <= segmentStart + SEGMENT_SIZE) {
+                    segment.putInt((int) (position - segmentStart) + COUNT_AT, END_OF_SEGMENT);
+                }
+                map(segmentStart + SEGMENT_SIZE);
+                position = segmentStart;
+            }
+        } catch (IOException e) {
+            Diagnostics.log(Diagnostics.Level.ERROR, "Recording stopped: %s", e.getMessage());
+            stopped = true;
+            return;
+        }
+        if (firstNanos < 0) firstNanos = s.nanos;
+
+        index(s.tick, position);
+        segment.position((int) (position - segmentStart));
+        segment.putLong(s.tick)
+            .putLong(s.nanos - firstNanos)
+            .putFloat((float) s.width)
+            .putFloat((float) s.height)
+            .put((byte) (s.clickPos != null ? 1 : 0))
+            .putFloat(s.clickPos != null ? (float) s.clickPos.x : 0)
+            .putFloat(s.clickPos != null ? (float) s.clickPos.y : 0)
+            .putInt(s.count);
+        for (var i = 0; i < s.count; i++) {
+            segment.putInt(quantizeInt(s.x[i], POSITION_SCALE))
+                .putInt(quantizeInt(s.y[i], POSITION_SCALE))
+                .putShort(quantizeShort(s.vx[i], VELOCITY_SCALE))
+                .putShort(quantizeShort(s.vy[i], VELOCITY_SCALE))
+                .putShort(quantizeShort(s.fx[i], FORCE_SCALE))
+                .putShort(quantizeShort(s.fy[i], FORCE_SCALE));
+        }
+        position += size;
+        header.putLong(DATA_END_POSITION, position); // replayable even if never closed
+    }
+
+    private void index(long tick, long offset) {
+        if (records == ticks.length) {
+            ticks = Arrays.copyOf(ticks, records * 2);
+            offsets = Arrays.copyOf(offsets, records * 2);
+        }
+        ticks[records] = tick;
+        offsets[records] = offset;
+        records++;
+    }
+
+    private void map(long start) throws IOException {
+        if (segment != null) segment.force();
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, SEGMENT_SIZE);
+        segmentStart = start;
+    }
+
+    /**
+     * Writes the index and closes the file. Later ticks are not recorded.
+     * Also to be called when the recording stopped on an error: the ticks before it are kept.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        segment.force();
+        segment = null;
+
+        // The index goes after the records, written through the channel: it may be larger than a segment
+        final var dataEnd = position;
+        final var index = ByteBuffer.allocate(4 + records * INDEX_ENTRY_BYTES);
+        index.putInt(records);
+        for (var i = 0; i < records; i++) {
+            index.putLong(ticks[i]).putLong(offsets[i]);
+        }
+        index.flip();
+        channel.write(index, dataEnd);
+
+        header.putLong(INDEX_OFFSET_POSITION, dataEnd);
+        header.force();
+
+        // Drop the unused end of the last mapped segment. Some systems do not allow it while mapped.
+        try {
+            channel.truncate(dataEnd + index.limit());
+        } catch (IOException e) {
+            Diagnostics.log(Diagnostics.Level.DEBUG, "Recording not truncated: %s", e.getMessage());
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,69 @@
+package cars.engine;
+
+/**
+ * Binary format of a recorded run, shared by {@link Recorder} and {@link Replay}.
+ * <p>
+ * All values are big-endian. The file is:
+ * <pre>
+ * header   magic (int), version (int), index offset (long, 0 if the recording was not closed),
+ *          data end (long), color count (int), colors (int RGB each)
+ * records  one per tick, in increasing tick order, see below. Records never cross a
+ *          {@link #SEGMENT_SIZE} boundary: when the next one does not fit, a record header with
+ *          the car count {@link #END_OF_SEGMENT} is written if there is room, and the records go
+ *          on at the start of the next segment.
+ * index    record count (int), then tick (long) and offset (long) of each record
+ * </pre>
+ * A record is the tick (long), its time in nanoseconds since the first record (long), the world
+ * width and height (float), whether there was a click (byte) and its position (float, float),
+ * the car count (int), and then {@link #CAR_BYTES} per car:
+ * <ul>
+ * <li>position x and y: int, in 1/{@value #POSITION_SCALE} of a pixel;</li>
+ * <li>velocity x and y: short, in 1/{@value #VELOCITY_SCALE} of a pixel per second;</li>
+ * <li>steering x and y: short, in 1/{@value #FORCE_SCALE} of a force unit.</li>
+ * </ul>
+ * Values outside the range of their type are saturated.
+ */
+final class Recording {
+    static final int MAGIC = 0x43415253; // "CARS"
+    static final int VERSION = 1;
+
+    static final int INDEX_OFFSET_POSITION = 8;
+    static final int DATA_END_POSITION = 16;
+    static final int COLORS_POSITION = 24;
+
+    // Field offsets inside a record
+    static final int TICK_AT = 0;
+    static final int NANOS_AT = 8;
+    static final int WIDTH_AT = 16;
+    static final int HEIGHT_AT = 20;
+    static final int CLICK_AT = 24;
+    static final int CLICK_X_AT = 25;
+    static final int CLICK_Y_AT = 29;
+    static final int COUNT_AT = 33;
+    static final int RECORD_HEADER_BYTES = 37;
+    static final int CAR_BYTES = 4 + 4 + 2 + 2 + 2 + 2;
+    static final int INDEX_ENTRY_BYTES = 16;
+    // Car count of the marker that ends the records of a segment
+    static final int END_OF_SEGMENT = -1;
+
+    // Files are mapped in segments of this size
+    static final long SEGMENT_SIZE = 64L << 20;
+
+    static final double POSITION_SCALE = 256;
+    static final double VELOCITY_SCALE = 8;
+    static final double FORCE_SCALE = 4;
+
+    private Recording() {}
+
+    static int recordBytes(int count) {
+        return RECORD_HEADER_BYTES + count * CAR_BYTES;
+    }
+
+    static int quantizeInt(double value, double scale) {
+        return Math.clamp(Math.round(value * scale), Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    static short quantizeShort(double value, double scale) {
+        return (short) Math.clamp(Math.round(value * scale), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+}
@@ -0,0 +1,317 @@
+package cars.engine;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cars.engine.Recording.*;
+
+/**
+ * Plays back a run written by a {@link Recorder}.
+ * <p>
+ * Replaying publishes {@link Snapshot snapshots} to the renderer, like a live simulation, but
+ * reads the car state from the file instead of calculating it: no steering runs. The playback
+ * speed may be changed, and it may seek to any recorded tick through the tick index.
+ * <p>
+ * The file is memory-mapped, so only the parts that are played are read from disk.
+ */
+public final class Replay implements SnapshotSource, AutoCloseable {
+    private static final long NO_SEEK = Long.MIN_VALUE;
+    // How often the playback clock is checked for a new record
+    private static final double RATE = 240;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final Color[] colors;
+    private final long[] ticks;
+    private final long[] offsets;
+
+    private final TripleBuffer<Snapshot> snapshots = new TripleBuffer<>(Snapshot::new);
+    private final FrameStats stats = new FrameStats();
+
+    // Controls, changed from any thread
+    private volatile double speed = 1.0;
+    private volatile boolean paused = false;
+    private final AtomicLong seekTick = new AtomicLong(NO_SEEK);
+    private final AtomicLong seekNanos = new AtomicLong(0);  // relative, added up
+
+    // Replay thread only
+    private int cursor = -1;
+    private long clock = 0;
+
+    private Replay(FileChannel channel, MappedByteBuffer[] segments, Color[] colors, long[] ticks, long[] offsets) {
+        this.channel = channel;
+        this.segments = segments;
+        this.colors = colors;
+        this.ticks = ticks;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Opens a recording.
+     *
+     * @param file The file written by a {@link Recorder}.
+     * @return The replay, positioned at the first tick.
+     * @throws IOException If the file cannot be read, or is not a recording.
+     */
+    public static Replay open(Path file) throws IOException {
+        final var channel = FileChannel.open(file);
+        try {
+            final var size = channel.size();
+            final var segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (var i = 0; i < segments.length; i++) {
+                final var start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            if (segments.length == 0 || size < COLORS_POSITION + 4 || segments[0].getInt(0) != MAGIC) {
+                throw new IOException("Not a recording: " + file);
+            }
+            if (segments[0].getInt(4) != VERSION) {
+                throw new IOException("Unsupported recording version " + segments[0].getInt(4) + ": " + file);
+            }
+
+            final var header = segments[0];
+            final var colors = new Color[header.getInt(COLORS_POSITION)];
+            for (var i = 0; i < colors.length; i++) {
+                colors[i] = new Color(header.getInt(COLORS_POSITION + 4 + i * 4));
+            }
+
+            final var indexOffset = header.getLong(INDEX_OFFSET_POSITION);
+            final var index = indexOffset != 0
+                ? readIndex(channel, indexOffset)
+                : scanIndex(segments, COLORS_POSITION + 4 + colors.length * 4L, header.getLong(DATA_END_POSITION));
+            return new Replay(channel, segments, colors, index[0], index[1]);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long[][] readIndex(FileChannel channel, long offset) throws IOException {
+        final var count = ByteBuffer.allocate(4);
+        channel.read(count, offset);
+        final var n = count.flip().getInt();
+        final var entries = ByteBuffer.allocate(n * INDEX_ENTRY_BYTES);
+        while (entries.hasRemaining()) {
+            if (channel.read(entries, offset + 4 + entries.position()) < 0) throw new IOException("Truncated index");
+        }
+        entries.flip();
+        final var ticks = new long[n];
+        final var offsets = new long[n];
+        for (var i = 0; i < n; i++) {
+            ticks[i] = entries.getLong();
+            offsets[i] = entries.getLong();
+        }
+        return new long[][] {ticks, offsets};
+    }
+
+    // Rebuilds the index of a recording that was not closed, following the records up to the data
+    // end. Stops at anything that is not a record of a later tick, like the padding of a segment
+    // written before the end of segment markers.
+    private static long[][] scanIndex(MappedByteBuffer[] segments, long start, long end) {
+        var ticks = new long[1024];
+        var offsets = new long[1024];
+        var n = 0;
+        var position = start;
+        while (position + RECORD_HEADER_BYTES <= end) {
+            final var segment = segments[(int) (position / SEGMENT_SIZE)];
+            final var local = (int) (position % SEGMENT_SIZE);
+            if (local + RECORD_HEADER_BYTES > segment.limit()) {
+                // Records never cross segments: the rest of this one is padding
+                position = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+                continue;
+            }
+            final var count = segment.getInt(local + COUNT_AT);
+            if (count == END_OF_SEGMENT) {
+                position = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+                continue;
+            }
+            if (count < 0 || count > (SEGMENT_SIZE - RECORD_HEADER_BYTES) / CAR_BYTES) break;
+            final var size = recordBytes(count);
+            if (local + size > SEGMENT_SIZE || position + size > end) break;
+            final var tick = segment.getLong(local + TICK_AT);
+            if (n > 0 && tick <= ticks[n - 1]) break;
+            if (n == ticks.length) {
+                ticks = Arrays.copyOf(ticks, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            ticks[n] = tick;
+            offsets[n] = position;
+            n++;
+            position += size;
+        }
+        return new long[][] {Arrays.copyOf(ticks, n), Arrays.copyOf(offsets, n)};
+    }
+
+    private MappedByteBuffer segmentOf(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)];
+    }
+
+    // ---- Info and controls ----
+
+    public int getRecordCount() { return ticks.length; }
+    public long getFirstTick() { return ticks.length == 0 ? 0 : ticks[0]; }
+    public long getLastTick() { return ticks.length == 0 ? 0 : ticks[ticks.length - 1]; }
+
+    public double getSpeed() { return speed; }
+
+    /**
+     * @param speed Playback speed, relative to the recording. 1 is real time.
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be greater than 0");
+        }
+        this.speed = speed;
+    }
+
+    public boolean isPaused() { return paused; }
+    public void setPaused(boolean paused) { this.paused = paused; }
+
+    /**
+     * Jumps to the last recorded tick at or before the given one (or to the first tick).
+     */
+    public void seek(long tick) {
+        seekTick.set(tick);
+    }
+
+    /**
+     * Jumps forward (or backward, if negative) by the given recording time.
+     */
+    public void seekBy(double seconds) {
+        seekNanos.addAndGet((long) (seconds * 1e9));
+    }
+
+    @Override
+    public FrameStats getStats() { return stats; }
+
+    @Override
+    public Snapshot latest() { return snapshots.latest(); }
+
+    // ---- Playback ----
+
+    @Override
+    public void run() {
+        if (ticks.length == 0) return;
+        stats.setCarCount(countAt(0));
+        final var pacer = new FramePacer(RATE);
+        var prev = System.nanoTime();
+        show(0, prev, false);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final var now = System.nanoTime();
+                final var dt = now - prev;
+                prev = now;
+
+                final var tick = seekTick.getAndSet(NO_SEEK);
+                final var offset = seekNanos.getAndSet(0);
+                if (tick != NO_SEEK) {
+                    show(indexAtTick(tick), now, false);
+                } else if (offset != 0) {
+                    show(indexAtTime(clock + offset), now, false);
+                } else if (!paused) {
+                    clock += (long) (dt * speed);
+                    // The newest record that is due: at high speeds, several are skipped
+                    final var next = indexAtTime(clock);
+                    if (next > cursor) {
+                        show(next, now, true);
+                        final var shown = System.nanoTime();
+                        stats.recordTick(now, shown, shown);
+                    }
+                    if (cursor == ticks.length - 1) clock = nanosAt(cursor); // stays at the end
+                }
+
+                if (pacer.await()) stats.countLateTick();
+            }
+        } catch (InterruptedException e) {
+            Diagnostics.log(Diagnostics.Level.WARN, "Replay loop interrupted");
+        }
+    }
+
+    // Publishes record i. If interpolate, the renderer moves the cars from the previous record.
+    private void show(int i, long now, boolean interpolate) {
+        final var s = snapshots.back();
+        final var previous = interpolate && cursor >= 0 ? cursor : i;
+        read(i, s, previous);
+        s.nanos = now;
+        s.prevNanos = previous == i ? now : now - (long) ((nanosAt(i) - nanosAt(previous)) / speed);
+        cursor = i;
+        if (!interpolate) clock = nanosAt(i);
+        snapshots.publish();
+    }
+
+    private void read(int i, Snapshot s, int previous) {
+        final var segment = segmentOf(offsets[i]);
+        var p = (int) (offsets[i] % SEGMENT_SIZE);
+        s.tick = segment.getLong(p + TICK_AT);
+        s.width = segment.getFloat(p + WIDTH_AT);
+        s.height = segment.getFloat(p + HEIGHT_AT);
+        s.clickPos = segment.get(p + CLICK_AT) != 0
+            ? Vector2.vec2(segment.getFloat(p + CLICK_X_AT), segment.getFloat(p + CLICK_Y_AT))
+            : null;
+        final var n = segment.getInt(p + COUNT_AT);
+        p += RECORD_HEADER_BYTES;
+
+        s.ensureCapacity(n);
+        s.count = n;
+        for (var c = 0; c < n; c++, p += CAR_BYTES) {
+            s.x[c] = segment.getInt(p) / POSITION_SCALE;
+            s.y[c] = segment.getInt(p + 4) / POSITION_SCALE;
+            s.vx[c] = segment.getShort(p + 8) / VELOCITY_SCALE;
+            s.vy[c] = segment.getShort(p + 10) / VELOCITY_SCALE;
+            s.fx[c] = segment.getShort(p + 12) / FORCE_SCALE;
+            s.fy[c] = segment.getShort(p + 14) / FORCE_SCALE;
+            s.colors[c] = c < colors.length ? colors[c] : Color.GRAY;
+        }
+
+        // Previous positions, for interpolation: only if the previous record has the same cars
+        final var prevSegment = segmentOf(offsets[previous]);
+        var q = (int) (offsets[previous] % SEGMENT_SIZE);
+        if (previous == i || prevSegment.getInt(q + COUNT_AT) != n) {
+            System.arraycopy(s.x, 0, s.prevX, 0, n);
+            System.arraycopy(s.y, 0, s.prevY, 0, n);
+            return;
+        }
+        q += RECORD_HEADER_BYTES;
+        for (var c = 0; c < n; c++, q += CAR_BYTES) {
+            s.prevX[c] = prevSegment.getInt(q) / POSITION_SCALE;
+            s.prevY[c] = prevSegment.getInt(q + 4) / POSITION_SCALE;
+        }
+    }
+
+    private long nanosAt(int i) {
+        return segmentOf(offsets[i]).getLong((int) (offsets[i] % SEGMENT_SIZE) + NANOS_AT);
+    }
+
+    private int countAt(int i) {
+        return segmentOf(offsets[i]).getInt((int) (offsets[i] % SEGMENT_SIZE) + COUNT_AT);
+    }
+
+    // Last record at or before the given tick, or the first one
+    private int indexAtTick(long tick) {
+        final var i = Arrays.binarySearch(ticks, tick);
+        return Math.max(0, i >= 0 ? i : -i - 2);
+    }
+
+    // Last record at or before the given time, or the first one
+    private int indexAtTime(long nanos) {
+        var lo = 0;
+        var hi = ticks.length - 1;
+        while (lo < hi) {
+            final var mid = (lo + hi + 1) >>> 1;
+            if (nanosAt(mid) <= nanos) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,434 @@
+package cars.engine;
+
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Creates the cars of a run from a text file, instead of {@link cars.student.Setup}.
+ * <p>
+ * Each line is a command; blank lines and anything after a <code>#</code> are ignored:
+ * <pre>
+ * seed 42                                 # random seed for positions and colors (default 0)
+ * spawn rect -500 -400 500 400            # region where the next groups are placed
+ * spawn circle 0 0 300
+ * set maxSpeed=200 mass=0.5               # settings for the next groups and cars
+ * reset                                   # back to the settings of each car class
+ * Seek 10000                              # 10000 cars, at random positions in the region
+ * Wander 500 color=#00FFFF orientation=90 # settings for this group only
+ * Arrive at -300 200                      # one car, at the given position
+ * </pre>
+ * Car types are class names: fully qualified, or the simple name of a class in
+ * <code>cars.student</code>, with or without the <code>StudentCar</code> prefix.
+ * The class needs a public <code>(Color, double, double)</code> constructor.
+ * Settings are <code>color</code> (<code>#RRGGBB</code>), <code>mass</code>, <code>maxForce</code>,
+ * <code>maxSpeed</code> and <code>orientation</code> (degrees); they replace what the car class
+ * chooses. A group without a color gets one random color for all its cars, and single cars
+ * without one share a random color per car type, so a scenario only has a few colors to draw.
+ * <p>
+ * The file is read one line at a time, and the cars are created in batches on a thread pool
+ * while the rest of the file is parsed. The result keeps the order of the file.
+ */
+public final class Scenario {
+    private static final String DEFAULT_PACKAGE = "cars.student.";
+    private static final String DEFAULT_PREFIX = "StudentCar";
+    // Cars per construction task
+    private static final int BATCH_SIZE = 4096;
+
+    private Scenario() {}
+
+    /**
+     * Loads the cars of a scenario file.
+     *
+     * @param file    The scenario.
+     * @param threads Number of threads creating the cars.
+     * @return The cars, in the order of the file.
+     * @throws IOException If the file cannot be read or has an error. The message gives the line.
+     */
+    public static List<Car> load(Path file, int threads) throws IOException {
+        try (final var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             final var pool = new ForkJoinPool(threads)) {
+            return new Parser(file.toString(), pool).parse(reader);
+        }
+    }
+
+    // ---- Parsing ----
+
+    private static final class Parser {
+        private final String name;
+        private final ForkJoinPool pool;
+        private final List<Future<List<Car>>> batches = new ArrayList<>();
+
+        private SplittableRandom random = new SplittableRandom(0);
+        private Region region = new Region(false, -Window.INITIAL_WIDTH / 2.0, -Window.INITIAL_HEIGHT / 2.0,
+            Window.INITIAL_WIDTH / 2.0, Window.INITIAL_HEIGHT / 2.0);
+        private Overrides defaults = Overrides.NONE;
+
+        // Single cars given by position, created together once there are enough of them
+        private List<Row> rows = new ArrayList<>();
+        // Colors of the single cars without one, by car type
+        private final Map<String, Color> typeColors = new HashMap<>();
+
+        private int line = 0;
+
+        Parser(String name, ForkJoinPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        List<Car> parse(BufferedReader reader) throws IOException {
+            try {
+                for (var text = reader.readLine(); text != null; text = reader.readLine()) {
+                    line++;
+                    final var command = text.substring(0, commentStart(text)).trim();
+                    if (!command.isEmpty()) parseCommand(command.split("\\s+"));
+                }
+            } catch (IllegalArgumentException e) {
+                throw error(e.getMessage());
+            }
+            flushRows();
+            return collect();
+        }
+
+        private void parseCommand(String[] words) throws IOException {
+            switch (words[0]) {
+                case "seed" -> {
+                    expect(words, 2, "seed <number>");
+                    random = new SplittableRandom(Long.parseLong(words[1]));
+                }
+                case "spawn" -> region = parseRegion(words);
+                case "set" -> defaults = defaults.with(parseOverrides(words, 1));
+                case "reset" -> defaults = Overrides.NONE;
+                default -> parseCars(words);
+            }
+        }
+
+        // Comments start with a # at the start of a word: color=#RRGGBB is not one
+        private static int commentStart(String text) {
+            for (var i = text.indexOf('#'); i >= 0; i = text.indexOf('#', i + 1)) {
+                if (i == 0 || Character.isWhitespace(text.charAt(i - 1))) return i;
+            }
+            return text.length();
+        }
+
+        private Region parseRegion(String[] words) throws IOException {
+            if (words.length == 6 && words[1].equals("rect")) {
+                final var minX = number(words[2]);
+                final var minY = number(words[3]);
+                final var maxX = number(words[4]);
+                final var maxY = number(words[5]);
+                if (minX > maxX || minY > maxY) throw error("spawn rect needs min <= max");
+                return new Region(false, minX, minY, maxX, maxY);
+            }
+            if (words.length == 5 && words[1].equals("circle")) {
+                final var radius = number(words[4]);
+                if (radius < 0) throw error("spawn circle needs a radius >= 0");
+                return new Region(true, number(words[2]), number(words[3]), radius, 0);
+            }
+            throw error("expected spawn rect <minX> <minY> <maxX> <maxY> or spawn circle <x> <y> <radius>");
+        }
+
+        // <Type> <count> [settings] or <Type> at <x> <y> [settings]
+        private void parseCars(String[] words) throws IOException {
+            final var factory = factoryOf(words[0]);
+            if (words.length >= 4 && words[1].equals("at")) {
+                final var overrides = defaults.with(parseOverrides(words, 4));
+                final var color = overrides.color != null
+                    ? overrides.color
+                    : typeColors.computeIfAbsent(words[0], type -> randomColor(random));
+                rows.add(new Row(factory, overrides, color, number(words[2]), number(words[3])));
+                if (rows.size() == BATCH_SIZE) flushRows();
+                return;
+            }
+            if (words.length < 2) throw error("expected " + words[0] + " <count> or " + words[0] + " at <x> <y>");
+
+            final int count;
+            try {
+                count = Integer.parseInt(words[1]);
+            } catch (NumberFormatException e) {
+                throw error("not a car count: " + words[1]);
+            }
+            if (count < 0) throw error("car count must not be negative");
+            final var overrides = defaults.with(parseOverrides(words, 2));
+            final var color = overrides.color != null ? overrides.color : randomColor(random);
+
+            // Single cars before this group keep their place
+            flushRows();
+            final var region = this.region;
+            for (var from = 0; from < count; from += BATCH_SIZE) {
+                final var size = Math.min(BATCH_SIZE, count - from);
+                final var batchRandom = random.split();
+                batches.add(pool.submit(() -> createGroup(factory, overrides, color, region, size, batchRandom)));
+            }
+        }
+
+        private void flushRows() {
+            if (rows.isEmpty()) return;
+            final var batch = rows;
+            rows = new ArrayList<>();
+            batches.add(pool.submit(() -> createRows(batch)));
+        }
+
+        private List<Car> collect() throws IOException {
+            var total = 0;
+            final var results = new ArrayList<List<Car>>(batches.size());
+            try {
+                for (final var batch : batches) {
+                    final var cars = batch.get();
+                    results.add(cars);
+                    total += cars.size();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while creating the cars of " + name, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Could not create the cars of " + name, e.getCause());
+            }
+            final var cars = new ArrayList<Car>(total);
+            for (final var result : results) {
+                cars.addAll(result);
+            }
+            return cars;
+        }
+
+        private Overrides parseOverrides(String[] words, int from) throws IOException {
+            var overrides = Overrides.NONE;
+            for (var i = from; i < words.length; i++) {
+                final var eq = words[i].indexOf('=');
+                if (eq <= 0) throw error("expected <setting>=<value>: " + words[i]);
+                final var key = words[i].substring(0, eq);
+                final var value = words[i].substring(eq + 1);
+                overrides = switch (key) {
+                    case "color" -> overrides.withColor(color(value));
+                    case "mass" -> overrides.withMass(number(value));
+                    case "maxForce" -> overrides.withMaxForce(number(value));
+                    case "maxSpeed" -> overrides.withMaxSpeed(number(value));
+                    case "orientation" -> overrides.withOrientation(number(value));
+                    default -> throw error("unknown setting: " + key);
+                };
+            }
+            // Settings checks its own values: fail on the line, not while creating the cars
+            overrides.accept(new Settings());
+            return overrides;
+        }
+
+        private MethodHandle factoryOf(String type) throws IOException {
+            final var candidates = type.contains(".")
+                ? List.of(type)
+                : List.of(DEFAULT_PACKAGE + DEFAULT_PREFIX + type, DEFAULT_PACKAGE + type);
+            for (final var className : candidates) {
+                final Class<? extends Car> carClass;
+                try {
+                    carClass = Car.carClass(className);
+                } catch (ClassNotFoundException e) {
+                    continue;
+                }
+                if (carClass == null) break;
+                final var factory = Car.factoryOf(carClass);
+                if (factory == null) throw error(className + " has no public (Color, double, double) constructor");
+                return factory;
+            }
+            throw error("unknown car type: " + type);
+        }
+
+        private double number(String value) throws IOException {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw error("not a number: " + value);
+            }
+        }
+
+        private Color color(String value) throws IOException {
+            try {
+                return new Color(Integer.parseInt(value.startsWith("#") ? value.substring(1) : value, 16));
+            } catch (NumberFormatException e) {
+                throw error("not a #RRGGBB color: " + value);
+            }
+        }
+
+        private void expect(String[] words, int count, String usage) throws IOException {
+            if (words.length != count) throw error("expected " + usage);
+        }
+
+        private IOException error(String message) {
+            return new IOException(name + ":" + line + ": " + message);
+        }
+    }
+
+    // ---- Construction, on the pool threads ----
+
+    private static List<Car> createGroup(MethodHandle factory, Overrides overrides, Color color,
+                                         Region region, int count, SplittableRandom random) throws Exception {
+        final var cars = new ArrayList<Car>(count);
+        final var spawn = new Spawn();
+        final var position = new double[2];
+        Car.OVERRIDES.set(spawn);
+        try {
+            for (var i = 0; i < count; i++) {
+                region.sample(random, position);
+                spawn.set(overrides, position[0], position[1]);
+                cars.add(create(factory, color, position[0], position[1]));
+            }
+        } finally {
+            Car.OVERRIDES.remove();
+        }
+        return cars;
+    }
+
+    private static List<Car> createRows(List<Row> rows) throws Exception {
+        final var cars = new ArrayList<Car>(rows.size());
+        final var spawn = new Spawn();
+        Car.OVERRIDES.set(spawn);
+        try {
+            for (final var row : rows) {
+                spawn.set(row.overrides, row.x, row.y);
+                cars.add(create(row.factory, row.color, row.x, row.y));
+            }
+        } finally {
+            Car.OVERRIDES.remove();
+        }
+        return cars;
+    }
+
+    private static Car create(MethodHandle factory, Color color, double x, double y) throws Exception {
+        try {
+            return (Car) factory.invokeExact(color, x, y);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Same range as Settings.randomColor, from the scenario random numbers
+    private static Color randomColor(SplittableRandom random) {
+        return new Color(random.nextInt(55, 255), random.nextInt(55, 255), random.nextInt(55, 255));
+    }
+
+    /**
+     * Settings given in the file, applied after the ones of the car class. Unset values are NaN (or null).
+     */
+    private static final class Overrides implements Consumer<Settings> {
+        static final Overrides NONE = new Overrides(null, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+
+        final Color color;
+        final double mass;
+        final double maxForce;
+        final double maxSpeed;
+        final double orientation;
+
+        private Overrides(Color color, double mass, double maxForce, double maxSpeed, double orientation) {
+            this.color = color;
+            this.mass = mass;
+            this.maxForce = maxForce;
+            this.maxSpeed = maxSpeed;
+            this.orientation = orientation;
+        }
+
+        Overrides withColor(Color color) { return new Overrides(color, mass, maxForce, maxSpeed, orientation); }
+        Overrides withMass(double mass) { return new Overrides(color, mass, maxForce, maxSpeed, orientation); }
+        Overrides withMaxForce(double maxForce) { return new Overrides(color, mass, maxForce, maxSpeed, orientation); }
+        Overrides withMaxSpeed(double maxSpeed) { return new Overrides(color, mass, maxForce, maxSpeed, orientation); }
+        Overrides withOrientation(double orientation) { return new Overrides(color, mass, maxForce, maxSpeed, orientation); }
+
+        // The values set in other replace the ones set here
+        Overrides with(Overrides other) {
+            return new Overrides(
+                other.color != null ? other.color : color,
+                Double.isNaN(other.mass) ? mass : other.mass,
+                Double.isNaN(other.maxForce) ? maxForce : other.maxForce,
+                Double.isNaN(other.maxSpeed) ? maxSpeed : other.maxSpeed,
+                Double.isNaN(other.orientation) ? orientation : other.orientation);
+        }
+
+        @Override
+        public void accept(Settings settings) {
+            if (color != null) settings.color(color);
+            if (!Double.isNaN(mass)) settings.mass(mass);
+            if (!Double.isNaN(maxForce)) settings.maxForce(maxForce);
+            if (!Double.isNaN(maxSpeed)) settings.maxSpeed(maxSpeed);
+            if (!Double.isNaN(orientation)) settings.orientationDegrees(orientation);
+        }
+    }
+
+    // The overrides of the car being created, plus its position: some car classes choose their own.
+    // Reused for all cars of a batch.
+    private static final class Spawn implements Consumer<Settings> {
+        private Overrides overrides;
+        private double x;
+        private double y;
+
+        void set(Overrides overrides, double x, double y) {
+            this.overrides = overrides;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public void accept(Settings settings) {
+            overrides.accept(settings);
+            settings.position(x, y);
+        }
+    }
+
+    // A single car given by position
+    private static final class Row {
+        final MethodHandle factory;
+        final Overrides overrides;
+        final Color color;
+        final double x;
+        final double y;
+
+        Row(MethodHandle factory, Overrides overrides, Color color, double x, double y) {
+            this.factory = factory;
+            this.overrides = overrides;
+            this.color = color;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    // A rectangle (minX, minY, maxX, maxY) or a circle (x, y, radius)
+    private static final class Region {
+        private final boolean circle;
+        private final double a;
+        private final double b;
+        private final double c;
+        private final double d;
+
+        Region(boolean circle, double a, double b, double c, double d) {
+            this.circle = circle;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        void sample(SplittableRandom random, double[] out) {
+            if (circle) {
+                // Uniform over the area: the radius grows with the square root
+                final var r = c * Math.sqrt(random.nextDouble());
+                final var angle = random.nextDouble(2 * Math.PI);
+                out[0] = a + r * Math.cos(angle);
+                out[1] = b + r * Math.sin(angle);
+            } else {
+                out[0] = c > a ? random.nextDouble(a, c) : a;
+                out[1] = d > b ? random.nextDouble(b, d) : b;
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package cars.engine;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Owns the cars and advances them, independently of the rendering.
+ * <p>
+ * When running on its own thread (see {@link #run()}), each tick ends by publishing a
+ * {@link Snapshot} of all cars, that the renderer picks through {@link #latest()}.
+ * Input state (mouse, click, keys, size) may be changed from any thread; each tick reads it once.
+ * <p>
+ * Each tick runs in two phases, both split across a {@link ForkJoinPool}:
+ * <ol>
+ * <li>All cars calculate their steering, reading only the state left by the previous tick;</li>
+ * <li>All cars integrate their own steering into the next state.</li>
+ * </ol>
+ * No car sees a neighbor that already moved in the same tick, so the result does not depend
+ * on the car order nor on the number of threads.
+ */
+public final class Simulation implements SnapshotSource {
+    // Close to the avoidance radius used by the cars, so most radius queries touch 3x3 cells
+    private static final double GRID_CELL_SIZE = 80;
+    // Cars per task. Small simulations run entirely on the calling thread.
+    private static final int CHUNK_SIZE = 512;
+    public static final double DEFAULT_TICK_RATE = 120;
+
+    private final List<Car> cars;
+    private final SpatialGrid grid = new SpatialGrid(GRID_CELL_SIZE);
+    private final KdTree kdTree = new KdTree();
+    private final PairAvoidance pairs;
+    private final FlowFields flows = new FlowFields();
+    private final CarStore store;
+    private final TripleBuffer<Snapshot> snapshots = new TripleBuffer<>(Snapshot::new);
+    private final ForkJoinPool pool;
+    private final FrameStats stats = new FrameStats();
+    // One world view per car, bound to each new tick
+    private final World[] views;
+
+    // Written by the input threads, read once per tick
+    private volatile Vector2 mousePos = null;
+    private volatile Vector2 clickPos = null;
+    private volatile boolean spacePressed = false;
+    private volatile double width;
+    private volatile double height;
+    private volatile double tickRate = DEFAULT_TICK_RATE;
+    private volatile Recorder recorder = null;
+    private volatile DistanceField walls = null;
+
+    // Checkpoints saved by run(), between two ticks
+    private volatile Path checkpointFile = null;
+    private volatile double checkpointInterval = 0;
+    private volatile boolean checkpointRequested = false;
+
+    // Position of each car on the previous published tick
+    private final Color[] colors;
+    private final double[] lastX;
+    private final double[] lastY;
+    private long tick = 0;
+    private long lastNanos;
+
+    /**
+     * @param cars     The cars to simulate.
+     * @param useStore If true, car state is moved into a {@link CarStore}.
+     * @param threads  Number of threads used by the update phases.
+     * @param width    Initial world width.
+     * @param height   Initial world height.
+     */
+    public Simulation(List<Car> cars, boolean useStore, int threads, double width, double height) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.cars = cars;
+        this.store = useStore ? CarStore.attach(cars) : null;
+        this.pool = new ForkJoinPool(threads);
+        this.pairs = new PairAvoidance(pool);
+        this.width = width;
+        this.height = height;
+
+        this.colors = new Color[cars.size()];
+        this.lastX = new double[cars.size()];
+        this.lastY = new double[cars.size()];
+        this.views = new World[cars.size()];
+        for (var i = 0; i < cars.size(); i++) {
+            final var car = cars.get(i);
+            views[i] = new World(car, i);
+            colors[i] = car.getColor();
+            lastX[i] = car.x();
+            lastY[i] = car.y();
+        }
+        this.lastNanos = System.nanoTime();
+        stats.setCarCount(cars.size());
+    }
+
+    /**
+     * Resumes a saved simulation.
+     *
+     * @param checkpoint The saved state. Its cars are used as they are.
+     * @param useStore   If true, car state is moved into a {@link CarStore}.
+     * @param threads    Number of threads used by the update phases.
+     */
+    public Simulation(Checkpoint checkpoint, boolean useStore, int threads) {
+        this(checkpoint.getCars(), useStore, threads, checkpoint.getWidth(), checkpoint.getHeight());
+        this.tick = checkpoint.getTick();
+        this.clickPos = checkpoint.getClickPos();
+    }
+
+    public List<Car> getCars() { return cars; }
+
+    /**
+     * @return Latency of the simulation loop. The renderer adds its own phases to the same stats.
+     */
+    @Override
+    public FrameStats getStats() { return stats; }
+
+    public void setMousePos(Vector2 mousePos) { this.mousePos = mousePos; }
+    public void setClickPos(Vector2 clickPos) { this.clickPos = clickPos; }
+    public void setSpacePressed(boolean spacePressed) { this.spacePressed = spacePressed; }
+    public void setSize(double width, double height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Records every published tick, or stops recording with null.
+     */
+    public void setRecorder(Recorder recorder) { this.recorder = recorder; }
+
+    /**
+     * The walls the cars can query through {@link World#getWallDistance}, or null for none.
+     */
+    public void setWalls(DistanceField walls) { this.walls = walls; }
+
+    /**
+     * Makes {@link #run()} save checkpoints to the given file.
+     *
+     * @param file     The checkpoint file, replaced on each save. Null stops saving.
+     * @param interval Seconds between saves, or 0 to save only on {@link #requestCheckpoint()}.
+     */
+    public void setCheckpoint(Path file, double interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval must not be negative");
+        }
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Asks {@link #run()} to save a checkpoint after the current tick.
+     */
+    public void requestCheckpoint() { this.checkpointRequested = true; }
+
+    /**
+     * Saves the state of all cars. Must not be called while {@link #run()} is running on
+     * another thread: use {@link #requestCheckpoint()} then.
+     *
+     * @see Checkpoint
+     */
+    public void checkpoint(Path file) throws IOException {
+        Checkpoint.write(file, tick, width, height, clickPos, cars);
+    }
+
+    /**
+     * Sets how many ticks per second {@link #run()} aims for. Must be called before it starts.
+     *
+     * @param tickRate Ticks per second, or 0 to tick as fast as possible.
+     */
+    public void setTickRate(double tickRate) {
+        if (tickRate < 0) {
+            throw new IllegalArgumentException("tickRate must not be negative");
+        }
+        this.tickRate = tickRate;
+    }
+
+    /**
+     * Advances all cars.
+     *
+     * @param secs Seconds since last tick.
+     */
+    public void step(final double secs) {
+        final var mousePos = this.mousePos;
+        final var clickPos = this.clickPos;
+        final var spacePressed = this.spacePressed;
+        final var width = this.width;
+        final var height = this.height;
+        final var walls = this.walls;
+
+        grid.rebuild(cars);
+        kdTree.invalidate(cars); // rebuilt by the first nearest neighbor query, if any
+        pairs.prepare(grid, tick);
+        flows.prepare(tick, width, height, walls);
+        final var context = new TickContext(secs, cars, grid, kdTree, pairs, walls, flows, mousePos, clickPos, spacePressed, width, height);
+
+        // Phase 1: steering, from the frozen previous state. Batch behaviors run first, for the whole range.
+        final var hasTarget = mousePos != null;
+        final var tx = hasTarget ? mousePos.x : 0;
+        final var ty = hasTarget ? mousePos.y : 0;
+        final var hasWalls = walls != null;
+        forEachRange((from, to) -> {
+            if (store != null) store.steerBatch(from, to, hasTarget, tx, ty, hasWalls);
+            for (var i = from; i < to; i++) {
+                final var view = views[i];
+                view.bind(context);
+                cars.get(i).steer(view);
+            }
+        });
+
+        // Phase 2: integration into the next state
+        if (store != null) {
+            forEachRange((from, to) -> store.integrate(from, to, secs, width, height));
+            store.swap();
+        } else {
+            forEachCar(i -> cars.get(i).integrate(secs, width, height));
+        }
+        tick++;
+    }
+
+    private void forEachCar(IntConsumer action) {
+        forEachRange((from, to) -> {
+            for (var i = from; i < to; i++) action.accept(i);
+        });
+    }
+
+    private void forEachRange(RangeAction action) {
+        if (cars.size() <= CHUNK_SIZE || pool.getParallelism() == 1) {
+            action.run(0, cars.size());
+            return;
+        }
+        pool.invoke(new RangeTask(action, 0, cars.size()));
+    }
+
+    @FunctionalInterface
+    private interface RangeAction {
+        void run(int from, int to);
+    }
+
+    // Never serialized: ForkJoinTask is Serializable, but a task only lives for one invoke
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveAction {
+        private final RangeAction action;
+        private final int from;
+        private final int to;
+
+        RangeTask(RangeAction action, int from, int to) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK_SIZE) {
+                action.run(from, to);
+                return;
+            }
+            final var mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(action, from, mid), new RangeTask(action, mid, to));
+        }
+    }
+
+    /**
+     * Copies the car state into the back snapshot and hands it to the renderer.
+     *
+     * @param nanos When the tick ended, in {@link System#nanoTime()} units.
+     */
+    void publish(long nanos) {
+        final var s = snapshots.back();
+        final var n = cars.size();
+        s.ensureCapacity(n);
+        s.tick = tick;
+        s.prevNanos = lastNanos;
+        s.nanos = nanos;
+        s.count = n;
+        s.width = width;
+        s.height = height;
+        s.clickPos = clickPos;
+        System.arraycopy(colors, 0, s.colors, 0, n);
+        System.arraycopy(lastX, 0, s.prevX, 0, n);
+        System.arraycopy(lastY, 0, s.prevY, 0, n);
+        for (var i = 0; i < n; i++) {
+            final var car = cars.get(i);
+            s.x[i] = lastX[i] = car.x();
+            s.y[i] = lastY[i] = car.y();
+            s.vx[i] = car.vx();
+            s.vy[i] = car.vy();
+            s.fx[i] = car.fx();
+            s.fy[i] = car.fy();
+        }
+        lastNanos = nanos;
+
+        final var recorder = this.recorder;
+        if (recorder != null) recorder.record(s);
+        snapshots.publish();
+    }
+
+    @Override
+    public Snapshot latest() {
+        return snapshots.latest();
+    }
+
+    @Override
+    public void run() {
+        final var pacer = new FramePacer(tickRate);
+        var prev = System.nanoTime();
+        var lastCheckpoint = prev;
+        lastNanos = prev;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final var now = System.nanoTime();
+                step((now - prev) / 1e9);
+                final var stepped = System.nanoTime();
+                publish(now);
+                stats.recordTick(now, stepped, System.nanoTime());
+                prev = now;
+
+                if (checkpointDue(now - lastCheckpoint)) {
+                    saveCheckpoint();
+                    lastCheckpoint = now;
+                }
+
+                if (pacer.await()) stats.countLateTick();
+            }
+        } catch (InterruptedException e) {
+            Diagnostics.log(Diagnostics.Level.WARN, "Simulation loop interrupted");
+        }
+    }
+
+    private boolean checkpointDue(long sinceLast) {
+        if (checkpointFile == null) return false;
+        final var interval = checkpointInterval;
+        return checkpointRequested || (interval > 0 && sinceLast >= interval * 1e9);
+    }
+
+    // The save delays the next tick; the pacer catches up afterwards
+    private void saveCheckpoint() {
+        checkpointRequested = false;
+        final var file = checkpointFile;
+        final var start = System.nanoTime();
+        try {
+            checkpoint(file);
+            Diagnostics.log(Diagnostics.Level.DEBUG, "Checkpoint saved in %d ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            Diagnostics.log(Diagnostics.Level.ERROR, "Checkpoint not saved: %s", e.getMessage());
+        } catch (RuntimeException e) {
+            // A car that cannot be saved now will not be saved later either
+            checkpointFile = null;
+            Diagnostics.log(Diagnostics.Level.ERROR, "Checkpoints stopped: %s", e.toString());
+        }
+    }
+}
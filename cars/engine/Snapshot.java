@@ -0,0 +1,71 @@
+package cars.engine;
+
+import java.awt.*;
+
+/**
+ * State of all cars at the end of one simulation tick, as seen by the renderer.
+ * <p>
+ * Snapshots are filled by the simulation thread and handed over through a {@link TripleBuffer}.
+ * Once published, a snapshot is never changed until the reader gives it back.
+ * Besides the current position, each snapshot keeps the position of the previous tick,
+ * so the renderer can interpolate between the two newest ticks.
+ */
+final class Snapshot {
+    long tick;
+    long prevNanos;  // When the previous tick ended
+    long nanos;      // When this tick ended
+    int count;
+
+    double width;
+    double height;
+    Vector2 clickPos;  // May be null
+
+    Color[] colors = new Color[0];
+    double[] prevX = new double[0];
+    double[] prevY = new double[0];
+    double[] x = new double[0];
+    double[] y = new double[0];
+    double[] vx = new double[0];
+    double[] vy = new double[0];
+    double[] fx = new double[0];
+    double[] fy = new double[0];
+
+    void ensureCapacity(int n) {
+        if (x.length >= n) return;
+        colors = new Color[n];
+        prevX = new double[n];
+        prevY = new double[n];
+        x = new double[n];
+        y = new double[n];
+        vx = new double[n];
+        vy = new double[n];
+        fx = new double[n];
+        fy = new double[n];
+    }
+
+    /**
+     * Interpolation factor for the given render time: 0 at the previous tick, 1 at this one.
+     * The renderer stays one tick behind the simulation, so it never has to extrapolate.
+     */
+    double alpha(long renderNanos) {
+        final var span = nanos - prevNanos;
+        if (span <= 0) return 1.0;
+        return Math.clamp((double) (renderNanos - nanos) / span, 0.0, 1.0);
+    }
+
+    /**
+     * @return The interpolated x of car i. Cars that wrapped around the edges are not interpolated.
+     */
+    double x(int i, double alpha) {
+        final var d = x[i] - prevX[i];
+        return Math.abs(d) > width / 2.0 ? x[i] : prevX[i] + d * alpha;
+    }
+
+    /**
+     * @return The interpolated y of car i. Cars that wrapped around the edges are not interpolated.
+     */
+    double y(int i, double alpha) {
+        final var d = y[i] - prevY[i];
+        return Math.abs(d) > height / 2.0 ? y[i] : prevY[i] + d * alpha;
+    }
+}
@@ -0,0 +1,16 @@
+package cars.engine;
+
+/**
+ * Something the renderer can draw: a live {@link Simulation} or a {@link Replay}.
+ */
+interface SnapshotSource extends Runnable {
+    /**
+     * @return The newest published snapshot. Render thread only.
+     */
+    Snapshot latest();
+
+    /**
+     * @return The stats the render loop adds its phases to.
+     */
+    FrameStats getStats();
+}
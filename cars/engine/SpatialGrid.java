@@ -0,0 +1,301 @@
+package cars.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static cars.engine.Vector2.cellKey;
+
+/**
+ * Uniform spatial hash over the car positions.
+ * <p>
+ * The grid is rebuilt in bulk once per tick: every car is bucketed by the cell it is in,
+ * and the buckets are laid out contiguously (counting sort), so a radius query only
+ * visits the cells overlapping the query circle instead of the whole car list.
+ * <p>
+ * Cells are hashed into a power-of-two table sized after the car count. Distinct cells
+ * may share a bucket; each entry keeps its own cell key, so queries never visit a car twice.
+ */
+public final class SpatialGrid {
+    private final double cellSize;
+    private final double invCellSize;
+
+    private int count;
+    private int mask;
+    private int[] bucketStart = new int[1];
+    private Car[] entries = new Car[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private long[] cells = new long[0];
+    // Index of each entry in the car list given to rebuild
+    private int[] ids = new int[0];
+
+    // Scratch buffers reused between rebuilds
+    private long[] carCells = new long[0];
+    private int[] carBuckets = new int[0];
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param cellSize Cell side, in pixels. Works best close to the most common query radius.
+     */
+    public SpatialGrid(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be greater than 0");
+        }
+        this.cellSize = cellSize;
+        this.invCellSize = 1.0 / cellSize;
+    }
+
+    public double getCellSize() { return cellSize; }
+    public int size() { return count; }
+
+    /**
+     * Re-buckets all cars. Must be called once per tick, before any query.
+     *
+     * @param cars The cars in the simulation.
+     */
+    public void rebuild(List<Car> cars) {
+        count = cars.size();
+        final var tableSize = Integer.highestOneBit(Math.max(16, count - 1) << 1);
+        mask = tableSize - 1;
+        ensureCapacity(count, tableSize);
+
+        // 1. Count cars per bucket
+        Arrays.fill(bucketStart, 0, tableSize + 1, 0);
+        for (var i = 0; i < count; i++) {
+            final var car = cars.get(i);
+            final var cell = cellKey(cellOf(car.x()), cellOf(car.y()));
+            final var bucket = bucketOf(cell);
+            carCells[i] = cell;
+            carBuckets[i] = bucket;
+            bucketStart[bucket + 1]++;
+        }
+
+        // 2. Prefix sum: bucketStart[b] is where bucket b begins
+        for (var b = 0; b < tableSize; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        // 3. Scatter, using bucketStart[b] as the insertion cursor. Afterwards, the cursor of
+        // bucket b points to the start of bucket b + 1, so shifting by one restores the starts.
+        for (var i = 0; i < count; i++) {
+            final var car = cars.get(i);
+            final var slot = bucketStart[carBuckets[i]]++;
+            entries[slot] = car;
+            xs[slot] = car.x();
+            ys[slot] = car.y();
+            cells[slot] = carCells[i];
+            ids[slot] = i;
+        }
+        System.arraycopy(bucketStart, 0, bucketStart, 1, tableSize);
+        bucketStart[0] = 0;
+
+        // Release references to cars that left the simulation
+        Arrays.fill(entries, count, entries.length, null);
+    }
+
+    /**
+     * Returns all cars within the radius of the given car, excluding the car itself.
+     *
+     * @param current The car in the center of the query.
+     * @param radius  The neighborhood radius.
+     * @return A new list with the neighbors.
+     */
+    public List<Car> neighbors(Car current, double radius) {
+        final var result = new ArrayList<Car>();
+        collect(current.x(), current.y(), radius, current, result);
+        return result;
+    }
+
+    /**
+     * Adds to the result all cars within the radius of (x, y).
+     *
+     * @param x       Query center x.
+     * @param y       Query center y.
+     * @param radius  The neighborhood radius.
+     * @param exclude A car to leave out of the result, or null.
+     * @param result  The list to add the neighbors to.
+     */
+    public void collect(double x, double y, double radius, Car exclude, List<Car> result) {
+        final var r2 = radius * radius;
+        final var minX = cellOf(x - radius);
+        final var maxX = cellOf(x + radius);
+        final var minY = cellOf(y - radius);
+        final var maxY = cellOf(y + radius);
+
+        // Huge radius: visiting every cell would cost more than scanning every car.
+        if ((double) (maxX - minX + 1) * (maxY - minY + 1) > count) {
+            for (var i = 0; i < count; i++) {
+                if (entries[i] != exclude && distanceSqr(i, x, y) <= r2) {
+                    result.add(entries[i]);
+                }
+            }
+            return;
+        }
+
+        for (var cx = minX; cx <= maxX; cx++) {
+            for (var cy = minY; cy <= maxY; cy++) {
+                final var cell = cellKey(cx, cy);
+                final var bucket = bucketOf(cell);
+                final var end = bucketStart[bucket + 1];
+                for (var i = bucketStart[bucket]; i < end; i++) {
+                    if (cells[i] == cell && entries[i] != exclude && distanceSqr(i, x, y) <= r2) {
+                        result.add(entries[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds to (fx, fy) the linear falloff repulsion of every car within the radius of (x, y):
+     * factor at distance 0, down to 0 at the radius, pushing away from each car.
+     *
+     * @param exclude A car to leave out, or null.
+     */
+    void repulsion(double x, double y, double radius, double factor, Car exclude, Vector2 force) {
+        final var r2 = radius * radius;
+        final var minX = cellOf(x - radius);
+        final var maxX = cellOf(x + radius);
+        final var minY = cellOf(y - radius);
+        final var maxY = cellOf(y + radius);
+        if ((double) (maxX - minX + 1) * (maxY - minY + 1) > count) {
+            for (var i = 0; i < count; i++) {
+                if (entries[i] != exclude) addRepulsion(x, y, xs[i], ys[i], r2, radius, factor, force);
+            }
+            return;
+        }
+        for (var cx = minX; cx <= maxX; cx++) {
+            for (var cy = minY; cy <= maxY; cy++) {
+                final var cell = cellKey(cx, cy);
+                final var bucket = bucketOf(cell);
+                final var end = bucketStart[bucket + 1];
+                for (var i = bucketStart[bucket]; i < end; i++) {
+                    if (cells[i] == cell && entries[i] != exclude) {
+                        addRepulsion(x, y, xs[i], ys[i], r2, radius, factor, force);
+                    }
+                }
+            }
+        }
+    }
+
+    static void addRepulsion(double x, double y, double otherX, double otherY,
+                             double r2, double radius, double factor, Vector2 force) {
+        final var dx = x - otherX;
+        final var dy = y - otherY;
+        final var d2 = dx * dx + dy * dy;
+        if (d2 > r2 || d2 < Vector2.ZERO_SQR) return; // out of range, or no direction to push to
+        final var d = Math.sqrt(d2);
+        final var k = 1.0 / d;
+        final var strength = factor * ((radius - d) / radius);
+        force.add(dx * k * strength, dy * k * strength);
+    }
+
+    // ---- Pair passes (see PairAvoidance) ----
+
+    int idOf(int slot) { return ids[slot]; }
+    double slotY(int slot) { return ys[slot]; }
+
+    /**
+     * Like {@link #repulsion}, for the cars in the given slots, but each pair of cars is handled
+     * once: the repulsion is added to one car and subtracted from the other, indexed by car id.
+     * A pair is handled from the car in the lower band, or with the lower slot in the same band.
+     *
+     * @param slots    Slots to handle pairs from.
+     * @param from     First index in slots (inclusive).
+     * @param to       Last index in slots (exclusive).
+     * @param slotBand Band of each slot. Cars within the radius must be at most one band apart.
+     */
+    void pairRepulsion(int[] slots, int from, int to, int[] slotBand,
+                       double radius, double factor, double[] fx, double[] fy) {
+        final var r2 = radius * radius;
+        for (var k = from; k < to; k++) {
+            final var s = slots[k];
+            final var band = slotBand[s];
+            final var x = xs[s];
+            final var y = ys[s];
+            final var minX = cellOf(x - radius);
+            final var maxX = cellOf(x + radius);
+            final var minY = cellOf(y - radius);
+            final var maxY = cellOf(y + radius);
+            if ((double) (maxX - minX + 1) * (maxY - minY + 1) > count) {
+                for (var t = 0; t < count; t++) {
+                    if (handles(s, band, t, slotBand)) addPairRepulsion(s, t, x, y, r2, radius, factor, fx, fy);
+                }
+                continue;
+            }
+            for (var cx = minX; cx <= maxX; cx++) {
+                for (var cy = minY; cy <= maxY; cy++) {
+                    final var cell = cellKey(cx, cy);
+                    final var bucket = bucketOf(cell);
+                    final var end = bucketStart[bucket + 1];
+                    for (var t = bucketStart[bucket]; t < end; t++) {
+                        if (cells[t] == cell && handles(s, band, t, slotBand)) {
+                            addPairRepulsion(s, t, x, y, r2, radius, factor, fx, fy);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean handles(int s, int band, int t, int[] slotBand) {
+        final var other = slotBand[t];
+        return other > band || (other == band && t > s);
+    }
+
+    private void addPairRepulsion(int s, int t, double x, double y, double r2, double radius, double factor,
+                                  double[] fx, double[] fy) {
+        final var dx = x - xs[t];
+        final var dy = y - ys[t];
+        final var d2 = dx * dx + dy * dy;
+        if (d2 > r2 || d2 < Vector2.ZERO_SQR) return;
+        final var d = Math.sqrt(d2);
+        final var k = 1.0 / d;
+        final var strength = factor * ((radius - d) / radius);
+        final var px = dx * k * strength;
+        final var py = dy * k * strength;
+        final var a = ids[s];
+        final var b = ids[t];
+        fx[a] += px;
+        fy[a] += py;
+        fx[b] -= px;
+        fy[b] -= py;
+    }
+
+    private double distanceSqr(int i, double x, double y) {
+        final var dx = xs[i] - x;
+        final var dy = ys[i] - y;
+        return dx * dx + dy * dy;
+    }
+
+    private int cellOf(double v) {
+        return (int) Math.floor(v * invCellSize);
+    }
+
+    private int bucketOf(long cell) {
+        // 64-bit mix (murmur3 finalizer), so neighboring cells spread over the table
+        var h = cell * 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void ensureCapacity(int n, int tableSize) {
+        if (bucketStart.length < tableSize + 1) {
+            bucketStart = new int[tableSize + 1];
+        }
+        if (entries.length < n) {
+            final var capacity = Math.max(n, entries.length + (entries.length >> 1));
+            entries = new Car[capacity];
+            xs = new double[capacity];
+            ys = new double[capacity];
+            cells = new long[capacity];
+            ids = new int[capacity];
+            carCells = new long[capacity];
+            carBuckets = new int[capacity];
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package cars.engine;
+
+import java.util.Arrays;
+
+/**
+ * Steering and integration math over primitive columns, for a range of cars at once.
+ * <p>
+ * Every kernel has a scalar version here and a SIMD version in {@link VectorKernels}, written with
+ * the incubating Vector API. The SIMD versions are used when the JVM runs with
+ * <code>--add-modules jdk.incubator.vector</code> (and not <code>-Dcars.simd=false</code>);
+ * otherwise the <code>jdk.incubator.vector</code> classes are never loaded.
+ * Both versions do the same floating point operations in the same order, so they give the same
+ * results.
+ * <p>
+ * Arrays are indexed by car slot; only the slots from (inclusive) to (exclusive) are read and written.
+ */
+public final class SteeringKernels {
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    // Shorter ranges are not worth the vector setup
+    static final int MIN_VECTOR_LENGTH = 16;
+    // Below this squared length, a direction is considered zero (like Vector2.isZero)
+    static final double ZERO_SQR = Vector2.ZERO_SQR;
+
+    private static boolean vectorized = AVAILABLE && !"false".equals(System.getProperty("cars.simd"));
+
+    private SteeringKernels() {}
+
+    /**
+     * @return True if the SIMD kernels are in use.
+     */
+    public static boolean isVectorized() { return vectorized; }
+
+    /**
+     * Chooses between the SIMD and the scalar kernels. Meant for benchmarks: must not be called
+     * while the cars update.
+     *
+     * @return True if the SIMD kernels are now in use. Always false if the module is not available.
+     */
+    public static boolean setVectorized(boolean vectorized) {
+        SteeringKernels.vectorized = vectorized && AVAILABLE;
+        return SteeringKernels.vectorized;
+    }
+
+    private static boolean vector(int from, int to) {
+        return vectorized && to - from >= MIN_VECTOR_LENGTH;
+    }
+
+    // ---- Behaviors ----
+
+    /**
+     * Seek: desired velocity towards (tx, ty) at max speed, minus the velocity.
+     */
+    public static void seek(double tx, double ty,
+                            double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                            double[] fx, double[] fy, int from, int to) {
+        if (vector(from, to)) {
+            from = VectorKernels.seek(tx, ty, x, y, vx, vy, maxSpeed, fx, fy, from, to);
+        }
+        for (var i = from; i < to; i++) {
+            final var dx = tx - x[i];
+            final var dy = ty - y[i];
+            final var d2 = dx * dx + dy * dy;
+            final var k = d2 < ZERO_SQR ? 0 : maxSpeed[i] / Math.sqrt(d2);
+            fx[i] = dx * k - vx[i];
+            fy[i] = dy * k - vy[i];
+        }
+    }
+
+    /**
+     * Flee: desired velocity away from (tx, ty) at max speed, minus the velocity.
+     * Cars farther than the panic radius get a zero force.
+     */
+    public static void flee(double tx, double ty, double panicRadius,
+                            double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                            double[] fx, double[] fy, int from, int to) {
+        if (vector(from, to)) {
+            from = VectorKernels.flee(tx, ty, panicRadius, x, y, vx, vy, maxSpeed, fx, fy, from, to);
+        }
+        final var r2 = panicRadius * panicRadius;
+        for (var i = from; i < to; i++) {
+            final var dx = x[i] - tx;
+            final var dy = y[i] - ty;
+            final var d2 = dx * dx + dy * dy;
+            if (d2 > r2) {
+                fx[i] = 0;
+                fy[i] = 0;
+                continue;
+            }
+            final var k = d2 < ZERO_SQR ? 0 : maxSpeed[i] / Math.sqrt(d2);
+            fx[i] = dx * k - vx[i];
+            fy[i] = dy * k - vy[i];
+        }
+    }
+
+    /**
+     * Arrive: like seek, but inside the slowing radius the desired speed falls linearly,
+     * from speedAtRadius * max speed at the radius to 0 at (tx, ty).
+     */
+    public static void arrive(double tx, double ty, double slowingRadius, double speedAtRadius,
+                              double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                              double[] fx, double[] fy, int from, int to) {
+        if (vector(from, to)) {
+            from = VectorKernels.arrive(tx, ty, slowingRadius, speedAtRadius, x, y, vx, vy, maxSpeed, fx, fy, from, to);
+        }
+        final var r2 = slowingRadius * slowingRadius;
+        final var ramp = speedAtRadius / slowingRadius;
+        for (var i = from; i < to; i++) {
+            final var dx = tx - x[i];
+            final var dy = ty - y[i];
+            final var d2 = dx * dx + dy * dy;
+            final var d = Math.sqrt(d2);
+            // Inside the radius, speed / d = max * ramp: the direction does not need normalizing
+            final var k = d2 < ZERO_SQR ? 0 : d2 <= r2 ? maxSpeed[i] * ramp : maxSpeed[i] / d;
+            fx[i] = dx * k - vx[i];
+            fy[i] = dy * k - vy[i];
+        }
+    }
+
+    static void zero(double[] fx, double[] fy, int from, int to) {
+        Arrays.fill(fx, from, to, 0);
+        Arrays.fill(fy, from, to, 0);
+    }
+
+    // ---- Integration ----
+
+    /**
+     * Same math as Car.integrate: velocity += F*dt/m, clamped to maxSpeed, position += velocity*dt,
+     * then wraps around the world edges. Cars that did not steer keep their state.
+     *
+     * @param w Half the world width.
+     * @param h Half the world height.
+     */
+    static void integrate(double secs, double w, double h,
+                          double[] x, double[] y, double[] vx, double[] vy,
+                          double[] fx, double[] fy, double[] mass, double[] maxSpeed, boolean[] steered,
+                          double[] nextX, double[] nextY, double[] nextVx, double[] nextVy,
+                          int from, int to) {
+        if (vector(from, to)) {
+            from = VectorKernels.integrate(secs, w, h, x, y, vx, vy, fx, fy, mass, maxSpeed, steered,
+                nextX, nextY, nextVx, nextVy, from, to);
+        }
+        for (var i = from; i < to; i++) {
+            if (!steered[i]) {
+                nextX[i] = x[i];
+                nextY[i] = y[i];
+                nextVx[i] = vx[i];
+                nextVy[i] = vy[i];
+                continue;
+            }
+
+            final var invMass = 1.0 / mass[i];
+            var nvx = vx[i] + fx[i] * secs * invMass;
+            var nvy = vy[i] + fy[i] * secs * invMass;
+
+            final var max = maxSpeed[i];
+            final var len2 = nvx * nvx + nvy * nvy;
+            if (len2 > max * max) {
+                final var k = 1.0 / Math.sqrt(len2);
+                nvx = nvx * k * max;
+                nvy = nvy * k * max;
+            }
+            nextVx[i] = nvx;
+            nextVy[i] = nvy;
+
+            var px = x[i] + nvx * secs;
+            var py = y[i] + nvy * secs;
+            if (px < -(w + 20)) px =  w;
+            if (px >  (w + 20)) px = -w;
+            if (py < -(h + 20)) py =  h;
+            if (py >  (h + 20)) py = -h;
+            nextX[i] = px;
+            nextY[i] = py;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package cars.engine;
+
+import java.util.List;
+
+/**
+ * State shared by all cars during one tick: elapsed time, the cars, their neighborhood index,
+ * the walls, the flow fields and the input.
+ * <p>
+ * Immutable, so the cars may read it from any thread. Each car sees it through its own
+ * {@link World} view, that only adds which car is the current one.
+ */
+public final class TickContext {
+    private final double secs;
+    private final List<Car> cars;
+    private final SpatialGrid grid;      // may be null
+    private final KdTree kdTree;         // may be null
+    private final PairAvoidance pairs;   // may be null
+    private final DistanceField walls;   // may be null
+    private final FlowFields flows;      // may be null
+
+    // Input, relative to the center of the world
+    private final boolean hasMousePos;
+    private final double mouseX;
+    private final double mouseY;
+    private final boolean hasClickPos;
+    private final double clickX;
+    private final double clickY;
+    private final boolean spacePressed;
+
+    private final double width;
+    private final double height;
+
+    /**
+     * @param secs         Seconds since last tick.
+     * @param cars         All cars in the simulation.
+     * @param grid         Neighborhood index, already rebuilt for this tick, or null.
+     * @param mousePos     Mouse position, or null if unknown. Copied.
+     * @param clickPos     Last click position, or null if there was no click. Copied.
+     * @param spacePressed If the space key is pressed.
+     * @param width        World width.
+     * @param height       World height.
+     */
+    public TickContext(double secs,
+                       List<Car> cars,
+                       SpatialGrid grid,
+                       Vector2 mousePos,
+                       Vector2 clickPos,
+                       boolean spacePressed,
+                       double width,
+                       double height) {
+        this(secs, cars, grid, null, mousePos, clickPos, spacePressed, width, height);
+    }
+
+    /**
+     * @param kdTree Nearest neighbor index, valid for this tick, or null.
+     * @see #TickContext(double, List, SpatialGrid, Vector2, Vector2, boolean, double, double)
+     */
+    public TickContext(double secs,
+                       List<Car> cars,
+                       SpatialGrid grid,
+                       KdTree kdTree,
+                       Vector2 mousePos,
+                       Vector2 clickPos,
+                       boolean spacePressed,
+                       double width,
+                       double height) {
+        this(secs, cars, grid, kdTree, null, null, null, mousePos, clickPos, spacePressed, width, height);
+    }
+
+    // Used by the simulation, that also calculates the avoidance forces one pair at a time and
+    // shares the flow fields
+    TickContext(double secs,
+                List<Car> cars,
+                SpatialGrid grid,
+                KdTree kdTree,
+                PairAvoidance pairs,
+                DistanceField walls,
+                FlowFields flows,
+                Vector2 mousePos,
+                Vector2 clickPos,
+                boolean spacePressed,
+                double width,
+                double height) {
+        this.secs = secs;
+        this.cars = cars;
+        this.grid = grid;
+        this.kdTree = kdTree;
+        this.pairs = pairs;
+        this.walls = walls;
+        this.flows = flows;
+        this.hasMousePos = mousePos != null;
+        this.mouseX = hasMousePos ? mousePos.x : 0;
+        this.mouseY = hasMousePos ? mousePos.y : 0;
+        this.hasClickPos = clickPos != null;
+        this.clickX = hasClickPos ? clickPos.x : 0;
+        this.clickY = hasClickPos ? clickPos.y : 0;
+        this.spacePressed = spacePressed;
+        this.width = width;
+        this.height = height;
+    }
+
+    public double getSecs() { return secs; }
+    public List<Car> getCars() { return cars; }
+    public SpatialGrid getGrid() { return grid; }
+    public KdTree getKdTree() { return kdTree; }
+    PairAvoidance getPairAvoidance() { return pairs; }
+    public DistanceField getWalls() { return walls; }
+    FlowFields getFlowFields() { return flows; }
+
+    public boolean hasMousePos() { return hasMousePos; }
+    public double getMouseX() { return mouseX; }
+    public double getMouseY() { return mouseY; }
+    public boolean hasClickPos() { return hasClickPos; }
+    public double getClickX() { return clickX; }
+    public double getClickY() { return clickY; }
+    public boolean isSpacePressed() { return spacePressed; }
+
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+}
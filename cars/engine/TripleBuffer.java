@@ -0,0 +1,54 @@
+package cars.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free triple buffer between one writer and one reader thread.
+ * <p>
+ * The writer fills the back buffer and publishes it, swapping it with the middle one.
+ * The reader swaps the middle buffer with its front one only when a new one was published.
+ * Neither side ever waits, and the buffer held by each side is never touched by the other.
+ *
+ * @param <T> Buffer type.
+ */
+final class TripleBuffer<T> {
+    // Marks the middle buffer as published since the last reader swap
+    private static final int FRESH = 0b100;
+    private static final int INDEX = 0b011;
+
+    private final Object[] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 2;  // Owned by the writer
+    private int front = 0; // Owned by the reader
+
+    TripleBuffer(Supplier<T> factory) {
+        this.buffers = new Object[] {factory.get(), factory.get(), factory.get()};
+    }
+
+    /**
+     * @return The buffer the writer may fill. Writer thread only.
+     */
+    @SuppressWarnings("unchecked")
+    T back() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer. The writer receives a new back buffer. Writer thread only.
+     */
+    void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * @return The most recently published buffer. Reader thread only.
+     */
+    @SuppressWarnings("unchecked")
+    T latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return (T) buffers[front];
+    }
+}
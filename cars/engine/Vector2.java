@@ -1,10 +1,5 @@
 package cars.engine;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.Objects;
-
-import static java.lang.Double.isInfinite;
 import static java.lang.Double.isNaN;
 
 /**
@@ -16,8 +11,18 @@ import static java.lang.Double.isNaN;
  * </ul>
  * Class methods returns the vector itself, allowing invocation chaining e.g.:
  * <code>v1.add(v2).normalize();</code>
+ * <p>
+ * Hot paths that must not allocate can use the <code>set*</code> methods, that write the result of a
+ * binary operator into an existing vector (<code>dest.setDifference(v1, v2)</code> is <code>dest = v1 - v2</code>),
+ * and the static scalar helpers over primitive components, like {@link #distance(double, double, double, double)}.
+ * <p>
+ * Two vectors are equal when their components are equal up to 8 decimal places. To use positions as
+ * keys without creating vectors, see {@link #cellKey(double, double, double)}.
  */
 public final class Vector2 implements Cloneable {
+    // Squared size below which a vector is considered zero, and has no direction
+    static final double ZERO_SQR = 1e-12;
+
     public double x;
     public double y;
 
@@ -110,6 +115,24 @@ public final class Vector2 implements Cloneable {
         return result;
     }
 
+    /**
+     * Adds two vectors. Same as the varargs version, without allocating the argument array.
+     *
+     * @return The addition result.
+     */
+    public static Vector2 add(Vector2 v1, Vector2 v2) {
+        return new Vector2(v1.x + v2.x, v1.y + v2.y);
+    }
+
+    /**
+     * Adds three vectors. Same as the varargs version, without allocating the argument array.
+     *
+     * @return The addition result.
+     */
+    public static Vector2 add(Vector2 v1, Vector2 v2, Vector2 v3) {
+        return new Vector2(v1.x + v2.x + v3.x, v1.y + v2.y + v3.y);
+    }
+
     /**
      * Subtracts vectors.
      *
@@ -124,6 +147,15 @@ public final class Vector2 implements Cloneable {
         return result;
     }
 
+    /**
+     * Subtracts two vectors. Same as the varargs version, without allocating the argument array.
+     *
+     * @return The subtraction result.
+     */
+    public static Vector2 subtract(Vector2 v1, Vector2 v2) {
+        return new Vector2(v1.x - v2.x, v1.y - v2.y);
+    }
+
     /**
      * Calculates the perpendicular vector.
      *
@@ -143,7 +175,7 @@ public final class Vector2 implements Cloneable {
      * @return The perpendicular dot product.
      */
     public static double perpDot(Vector2 v1, Vector2 v2) {
-        return perp(v1).dot(v2);
+        return -v1.y * v2.x + v1.x * v2.y;
     }
 
     /**
@@ -196,11 +228,39 @@ public final class Vector2 implements Cloneable {
      * @return The distance between the two vectors
      */
     public static double distanceSqr(Vector2 v1, Vector2 v2) {
-        return subtract(v1, v2).sizeSqr();
+        return distanceSqr(v1.x, v1.y, v2.x, v2.y);
     }
 
     public static double distance(Vector2 v1, Vector2 v2) {
-        return subtract(v1, v2).size();
+        return distance(v1.x, v1.y, v2.x, v2.y);
+    }
+
+    /**
+     * @return The size of the vector (x, y), squared.
+     */
+    public static double sizeSqr(double x, double y) {
+        return x * x + y * y;
+    }
+
+    /**
+     * @return The size of the vector (x, y).
+     */
+    public static double size(double x, double y) {
+        return Math.sqrt(sizeSqr(x, y));
+    }
+
+    /**
+     * @return The distance between the points (x1, y1) and (x2, y2), squared.
+     */
+    public static double distanceSqr(double x1, double y1, double x2, double y2) {
+        return sizeSqr(x1 - x2, y1 - y2);
+    }
+
+    /**
+     * @return The distance between the points (x1, y1) and (x2, y2).
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        return size(x1 - x2, y1 - y2);
     }
 
     /**
@@ -249,16 +309,68 @@ public final class Vector2 implements Cloneable {
         return v == null || v.isZero();
     }
 
+    /**
+     * Packs two cell coordinates into a single long. Use as a cheap key for grids, caches and sets.
+     *
+     * @param cx Cell x coordinate.
+     * @param cy Cell y coordinate.
+     * @return The key.
+     * @see #cellX(long)
+     * @see #cellY(long)
+     */
+    public static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Key of the square cell of the given size that contains the point (x, y).
+     * Points in the same cell have the same key.
+     *
+     * @param cellSize Cell side. Use a small size (e.g. 1e-3) to dedup nearly equal points.
+     * @return The key.
+     */
+    public static long cellKey(double x, double y, double cellSize) {
+        return cellKey((int) Math.floor(x / cellSize), (int) Math.floor(y / cellSize));
+    }
+
+    /**
+     * @return The cell x coordinate of a key.
+     * @see #cellKey(int, int)
+     */
+    public static int cellX(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * @return The cell y coordinate of a key.
+     * @see #cellKey(int, int)
+     */
+    public static int cellY(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Rounds v to 8 decimal places (half up) and returns it as a fixed-point long.
+     * Matches rounding the decimal representation of v with BigDecimal (but without allocating),
+     * except for rare values within one ulp of a tie.
+     * Values too big for the long range saturate, and NaN maps to 0.
+     */
     private static long q8(double v) {
-        // If you expect only finite values, you can drop this branch.
-        if (isInfinite(v)) {
-            if (isNaN(v)) return 0L;
-            if (v > 0) return Long.MAX_VALUE;
-            return Long.MIN_VALUE;
+        if (isNaN(v)) return 0L;
+        final var abs = Math.abs(v);
+
+        // A value written with 9 decimals ending in 5 (e.g. 0.123456785) is a tie in decimal,
+        // but its nearest double may fall just below it. Detect it on the 9th decimal and round up.
+        final var nines = abs * 1e9;
+        final var tie = Math.rint(nines);
+        final long q;
+        if (tie % 10 == 5 && Math.abs(nines - tie) <= Math.ulp(abs) * 1e9) {
+            q = (long) ((tie + 5) / 10);
+        } else {
+            // The cast saturates to Long.MAX_VALUE for huge values and infinity
+            q = (long) Math.floor(abs * 1e8 + 0.5);
         }
-        final var scale = 8;
-        final var bd = BigDecimal.valueOf(v).setScale(scale, RoundingMode.HALF_UP);
-        return bd.movePointRight(scale).longValueExact();
+        return v < 0 ? -q : q;
     }
 
     /**
@@ -274,6 +386,70 @@ public final class Vector2 implements Cloneable {
         return this;
     }
 
+    /**
+     * Copies the other vector components.
+     *
+     * @param other The vector to copy.
+     * @return This vector.
+     */
+    public Vector2 set(Vector2 other) {
+        return set(other.x, other.y);
+    }
+
+    /**
+     * Stores v1 + v2 in this vector. Any of the arguments may be this vector itself.
+     *
+     * @return This vector.
+     * @see #add(Vector2, Vector2)
+     */
+    public Vector2 setSum(Vector2 v1, Vector2 v2) {
+        return set(v1.x + v2.x, v1.y + v2.y);
+    }
+
+    /**
+     * Stores v1 - v2 in this vector. Any of the arguments may be this vector itself.
+     *
+     * @return This vector.
+     * @see #subtract(Vector2, Vector2)
+     */
+    public Vector2 setDifference(Vector2 v1, Vector2 v2) {
+        return set(v1.x - v2.x, v1.y - v2.y);
+    }
+
+    /**
+     * Stores vector * scalar in this vector. The vector may be this vector itself.
+     *
+     * @return This vector.
+     * @see #multiply(Vector2, double)
+     */
+    public Vector2 setScaled(Vector2 vector, double scalar) {
+        return set(vector.x * scalar, vector.y * scalar);
+    }
+
+    /**
+     * Turns this vector into a vector with the given angle and size.
+     *
+     * @return This vector.
+     * @see #byAngleSize(double, double)
+     */
+    public Vector2 setAngleSize(double angle, double size) {
+        return set(Math.cos(angle) * size, Math.sin(angle) * size);
+    }
+
+    /**
+     * Truncates this vector to the given size.
+     *
+     * @param size The maximum vector size
+     * @return This vector, truncated.
+     * @see #truncate(Vector2, double)
+     */
+    public Vector2 truncate(double size) {
+        if (sizeSqr() <= size * size) {
+            return this;
+        }
+        return normalize().multiply(size);
+    }
+
     /**
      * @return the size of this vector squared.
      */
@@ -318,6 +494,19 @@ public final class Vector2 implements Cloneable {
         return this;
     }
 
+    /**
+     * Adds the given components to this vector.
+     *
+     * @param x The x value to add.
+     * @param y The y value to add.
+     * @return This vector after addition.
+     */
+    public Vector2 add(double x, double y) {
+        this.x += x;
+        this.y += y;
+        return this;
+    }
+
     /**
      * Negates this vector, reversing it's side.
      *
@@ -412,7 +601,7 @@ public final class Vector2 implements Cloneable {
      * @return True if this is the zero vector.
      */
     public boolean isZero() {
-        return sizeSqr() < 1e-12;
+        return sizeSqr() < ZERO_SQR;
     }
 
     /**
@@ -422,17 +611,25 @@ public final class Vector2 implements Cloneable {
         return Math.atan2(y, x);
     }
 
+    /**
+     * @return A key of the cell of the given size that contains this vector.
+     * @see #cellKey(double, double, double)
+     */
+    public long cellKey(double cellSize) {
+        return cellKey(x, y, cellSize);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (this == other) return true;
-        if (other.getClass() != Vector2.class) return false;
-        var v = (Vector2) other;
+        if (!(other instanceof Vector2 v)) return false;
         return q8(x) == q8(v.x) && q8(y) == q8(v.y);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(q8(x), q8(y));
+        // Same value as Objects.hash(q8(x), q8(y)), without boxing
+        return 31 * (31 + Long.hashCode(q8(x))) + Long.hashCode(q8(y));
     }
 
     @Override
@@ -0,0 +1,120 @@
+package cars.engine;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the {@link SteeringKernels}, with the incubating Vector API.
+ * <p>
+ * Only loaded when the <code>jdk.incubator.vector</code> module is present: SteeringKernels checks
+ * it before the first call. Each kernel processes whole vectors and returns the first slot it did
+ * not process; the scalar loop in SteeringKernels does the remaining ones. Branches become masks,
+ * and every lane goes through the same operations, in the same order, as the scalar code.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {}
+
+    static int seek(double tx, double ty,
+                    double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                    double[] fx, double[] fy, int from, int to) {
+        final var end = from + SPECIES.loopBound(to - from);
+        var i = from;
+        for (; i < end; i += SPECIES.length()) {
+            final var dx = DoubleVector.broadcast(SPECIES, tx).sub(DoubleVector.fromArray(SPECIES, x, i));
+            final var dy = DoubleVector.broadcast(SPECIES, ty).sub(DoubleVector.fromArray(SPECIES, y, i));
+            final var d2 = dx.mul(dx).add(dy.mul(dy));
+            final var k = DoubleVector.fromArray(SPECIES, maxSpeed, i).div(d2.sqrt())
+                .blend(0, d2.lt(SteeringKernels.ZERO_SQR));
+            dx.mul(k).sub(DoubleVector.fromArray(SPECIES, vx, i)).intoArray(fx, i);
+            dy.mul(k).sub(DoubleVector.fromArray(SPECIES, vy, i)).intoArray(fy, i);
+        }
+        return i;
+    }
+
+    static int flee(double tx, double ty, double panicRadius,
+                    double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                    double[] fx, double[] fy, int from, int to) {
+        final var r2 = panicRadius * panicRadius;
+        final var end = from + SPECIES.loopBound(to - from);
+        var i = from;
+        for (; i < end; i += SPECIES.length()) {
+            final var dx = DoubleVector.fromArray(SPECIES, x, i).sub(tx);
+            final var dy = DoubleVector.fromArray(SPECIES, y, i).sub(ty);
+            final var d2 = dx.mul(dx).add(dy.mul(dy));
+            final var k = DoubleVector.fromArray(SPECIES, maxSpeed, i).div(d2.sqrt())
+                .blend(0, d2.lt(SteeringKernels.ZERO_SQR));
+            final var outside = d2.compare(VectorOperators.GT, r2);
+            dx.mul(k).sub(DoubleVector.fromArray(SPECIES, vx, i)).blend(0, outside).intoArray(fx, i);
+            dy.mul(k).sub(DoubleVector.fromArray(SPECIES, vy, i)).blend(0, outside).intoArray(fy, i);
+        }
+        return i;
+    }
+
+    static int arrive(double tx, double ty, double slowingRadius, double speedAtRadius,
+                      double[] x, double[] y, double[] vx, double[] vy, double[] maxSpeed,
+                      double[] fx, double[] fy, int from, int to) {
+        final var r2 = slowingRadius * slowingRadius;
+        final var ramp = speedAtRadius / slowingRadius;
+        final var end = from + SPECIES.loopBound(to - from);
+        var i = from;
+        for (; i < end; i += SPECIES.length()) {
+            final var dx = DoubleVector.broadcast(SPECIES, tx).sub(DoubleVector.fromArray(SPECIES, x, i));
+            final var dy = DoubleVector.broadcast(SPECIES, ty).sub(DoubleVector.fromArray(SPECIES, y, i));
+            final var d2 = dx.mul(dx).add(dy.mul(dy));
+            final var max = DoubleVector.fromArray(SPECIES, maxSpeed, i);
+            final var k = max.div(d2.sqrt())
+                .blend(max.mul(ramp), d2.compare(VectorOperators.LE, r2))
+                .blend(0, d2.lt(SteeringKernels.ZERO_SQR));
+            dx.mul(k).sub(DoubleVector.fromArray(SPECIES, vx, i)).intoArray(fx, i);
+            dy.mul(k).sub(DoubleVector.fromArray(SPECIES, vy, i)).intoArray(fy, i);
+        }
+        return i;
+    }
+
+    static int integrate(double secs, double w, double h,
+                         double[] x, double[] y, double[] vx, double[] vy,
+                         double[] fx, double[] fy, double[] mass, double[] maxSpeed, boolean[] steered,
+                         double[] nextX, double[] nextY, double[] nextVx, double[] nextVy,
+                         int from, int to) {
+        final var one = DoubleVector.broadcast(SPECIES, 1.0);
+        final var end = from + SPECIES.loopBound(to - from);
+        var i = from;
+        for (; i < end; i += SPECIES.length()) {
+            final var moving = VectorMask.fromArray(SPECIES, steered, i);
+            final var ox = DoubleVector.fromArray(SPECIES, x, i);
+            final var oy = DoubleVector.fromArray(SPECIES, y, i);
+            final var ovx = DoubleVector.fromArray(SPECIES, vx, i);
+            final var ovy = DoubleVector.fromArray(SPECIES, vy, i);
+
+            // velocity += F*dt/m, clamped to max speed
+            final var invMass = one.div(DoubleVector.fromArray(SPECIES, mass, i));
+            var nvx = ovx.add(DoubleVector.fromArray(SPECIES, fx, i).mul(secs).mul(invMass));
+            var nvy = ovy.add(DoubleVector.fromArray(SPECIES, fy, i).mul(secs).mul(invMass));
+            final var max = DoubleVector.fromArray(SPECIES, maxSpeed, i);
+            final var len2 = nvx.mul(nvx).add(nvy.mul(nvy));
+            final var tooFast = len2.compare(VectorOperators.GT, max.mul(max));
+            final var k = one.div(len2.sqrt());
+            nvx = nvx.blend(nvx.mul(k).mul(max), tooFast);
+            nvy = nvy.blend(nvy.mul(k).mul(max), tooFast);
+
+            // position += velocity*dt, wrapped around the edges
+            var px = ox.add(nvx.mul(secs));
+            var py = oy.add(nvy.mul(secs));
+            px = px.blend(w, px.lt(-(w + 20)));
+            px = px.blend(-w, px.compare(VectorOperators.GT, w + 20));
+            py = py.blend(h, py.lt(-(h + 20)));
+            py = py.blend(-h, py.compare(VectorOperators.GT, h + 20));
+
+            // Cars that did not steer keep their state
+            ox.blend(px, moving).intoArray(nextX, i);
+            oy.blend(py, moving).intoArray(nextY, i);
+            ovx.blend(nvx, moving).intoArray(nextVx, i);
+            ovy.blend(nvy, moving).intoArray(nextVy, i);
+        }
+        return i;
+    }
+}
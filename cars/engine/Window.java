@@ -5,22 +5,56 @@ import cars.student.Setup;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.List;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 public final class Window extends JFrame implements Runnable {
     public static final int INITIAL_WIDTH = 1024;
     public static final int INITIAL_HEIGHT = 768;
-
-    private final List<Car> cars;
-    private Vector2 clickPos = null;
-    private Vector2 mousePos = null;
-    private boolean debugMode = true;
-    private boolean spacePressed = false;
-    private BufferedImage carparkImage;
+    // Run with -Dcars.store=true to keep the car state in structure-of-arrays columns
+    private static final boolean USE_CAR_STORE = Boolean.getBoolean("cars.store");
+    // Run with -Dcars.threads=N to choose how many threads update the cars
+    private static final int THREADS = Integer.getInteger("cars.threads", Runtime.getRuntime().availableProcessors());
+    // Run with -Dcars.fps=N and -Dcars.tps=N to choose the frame and tick rates (0 means as fast as possible)
+    private static final int FPS = Integer.getInteger("cars.fps", 60);
+    private static final int TICK_RATE = Integer.getInteger("cars.tps", (int) Simulation.DEFAULT_TICK_RATE);
+    // Run with -Dcars.lod=vector|sprite|triangle|point to always draw cars at that level of detail
+    private static final CarRenderer.Lod LOD = CarRenderer.parseLod(System.getProperty("cars.lod"));
+    // Run with -Dcars.worldWidth=W -Dcars.worldHeight=H for a world larger than the window (0 follows the window size)
+    private static final int WORLD_WIDTH = Integer.getInteger("cars.worldWidth", 0);
+    private static final int WORLD_HEIGHT = Integer.getInteger("cars.worldHeight", 0);
+    // Screen pixels moved by each arrow key press, and zoom step of each mouse wheel notch
+    private static final double PAN_STEP = 40;
+    private static final double ZOOM_STEP = 1.1;
+    // Run with -Dcars.record=FILE to record the run, or -Dcars.replay=FILE to play a recording back
+    private static final String RECORD_FILE = System.getProperty("cars.record");
+    private static final String REPLAY_FILE = System.getProperty("cars.replay");
+    private static final double REPLAY_SEEK_SECONDS = 5;
+    // Run with -Dcars.checkpoint=FILE to resume from FILE if it exists, and save to it with the K key.
+    // Add -Dcars.checkpointEvery=SECONDS to also save periodically.
+    private static final String CHECKPOINT_FILE = System.getProperty("cars.checkpoint");
+    private static final double CHECKPOINT_INTERVAL = Double.parseDouble(System.getProperty("cars.checkpointEvery", "0"));
+    // Run with -Dcars.scenario=FILE to create the cars from a scenario file instead of Setup
+    private static final String SCENARIO_FILE = System.getProperty("cars.scenario");
+    // The map: drawn as the background, and its walls turned into a distance field, cached next to it
+    private static final Path MAP_FILE = Path.of("Estacionamento.png");
+    private static final Path WALLS_CACHE = Path.of("Estacionamento.png.sdf");
+
+    private final Simulation simulation; // null when replaying
+    private final Replay replay;         // null unless replaying
+    private final SnapshotSource source;
+    private final CarRenderer carRenderer = new CarRenderer(FPS, LOD); // Render thread only
+    private final DebugOverlay debugOverlay = new DebugOverlay(); // Render thread only
+    private final Camera camera = new Camera();
+    private final Rectangle2D.Double view = new Rectangle2D.Double(); // Render thread only
+    private volatile boolean debugMode = true;
+    private BackgroundLayer background; // Render thread only; null if the image could not be loaded
 
     private Window() {
         super("Steering behaviors");
@@ -38,69 +72,193 @@ public final class Window extends JFrame implements Runnable {
         });
 
         // ---CARREGA A IMAGEM APENAS UMA VEZ ---
+        BufferedImage originalImage = null;
         try {
-            BufferedImage originalImage = ImageIO.read(new File("Estacionamento.png"));
-
+            originalImage = ImageIO.read(MAP_FILE.toFile());
 
-            this.carparkImage = new BufferedImage(INITIAL_WIDTH, INITIAL_HEIGHT, originalImage.getType());
-            Graphics2D g = this.carparkImage.createGraphics();
-
-
-            g.drawImage(originalImage, 0, 0, INITIAL_WIDTH, INITIAL_HEIGHT, null);
-            g.dispose();
+            // A escala para o tamanho da janela é feita uma vez por tamanho, no BackgroundLayer
+            this.background = new BackgroundLayer(originalImage);
 
         } catch (IOException e) {
-            System.err.println("Erro ao carregar a imagem de fundo: " + e.getMessage());
+            Diagnostics.log(Diagnostics.Level.ERROR, "Erro ao carregar a imagem de fundo: %s", e.getMessage());
         }
         // ---------------------------------------
 
-        addMouseListener(new MouseAdapter() {
+        // Left button clicks; right or middle button drags the camera; the wheel zooms
+        final var mouse = new MouseAdapter() {
+            private int dragX;
+            private int dragY;
+
             @Override
             public void mouseClicked(MouseEvent e) {
-                // click position relative to the centered origin
-                clickPos = new Vector2(
-                    e.getX() - getWidth() / 2.0,
-                    e.getY() - getHeight() / 2.0
-                );
+                if (!SwingUtilities.isLeftMouseButton(e)) return;
+                // click position in world coordinates
+                if (simulation == null) return;
+                final var clickPos = new Vector2(camera.toWorldX(e.getX()), camera.toWorldY(e.getY()));
+                simulation.setClickPos(clickPos);
+                Diagnostics.log(Diagnostics.Level.INFO, "Click at %.1f|%.1f", clickPos.x, clickPos.y);
             }
-        });
 
-        addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseMoved(MouseEvent e) {
-                mousePos = new Vector2(
-                    e.getX() - getWidth() / 2.0,
-                    e.getY() - getHeight() / 2.0
-                );
+                if (simulation == null) return;
+                simulation.setMousePos(new Vector2(camera.toWorldX(e.getX()), camera.toWorldY(e.getY())));
             }
-        });
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragX = e.getX();
+                dragY = e.getY();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (SwingUtilities.isLeftMouseButton(e)) return;
+                camera.pan(e.getX() - dragX, e.getY() - dragY);
+                dragX = e.getX();
+                dragY = e.getY();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                camera.zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
 
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyTyped(KeyEvent e) {
                 if ("D".equalsIgnoreCase("" + e.getKeyChar())) {
                     debugMode = !debugMode;
+                } else if ("F".equalsIgnoreCase("" + e.getKeyChar())) {
+                    camera.follow(camera.getFollowing() + 1); // the next car
+                } else if ("C".equalsIgnoreCase("" + e.getKeyChar())) {
+                    camera.reset();
+                } else if ("K".equalsIgnoreCase("" + e.getKeyChar()) && simulation != null) {
+                    simulation.requestCheckpoint();
+                } else if (replay != null) {
+                    switch (e.getKeyChar()) {
+                        case 'p', 'P' -> replay.setPaused(!replay.isPaused());
+                        case '+', '=' -> replay.setSpeed(Math.min(replay.getSpeed() * 2, 1024));
+                        case '-' -> replay.setSpeed(Math.max(replay.getSpeed() / 2, 1.0 / 64));
+                        case '[' -> replay.seekBy(-REPLAY_SEEK_SECONDS);
+                        case ']' -> replay.seekBy(REPLAY_SEEK_SECONDS);
+                        case '0' -> replay.seek(replay.getFirstTick());
+                    }
                 }
             }
 
             @Override // Captura quando a tecla é pressionada
             public void keyPressed(KeyEvent e) {
                 // KeyEvent.VK_SPACE é a constante para a tecla Espaço
-                if (e.getKeyCode() == KeyEvent.VK_SPACE) {
-                    spacePressed = true; // Liga a flag
+                if (e.getKeyCode() == KeyEvent.VK_SPACE && simulation != null) {
+                    simulation.setSpacePressed(true); // Liga a flag
+                }
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_LEFT -> camera.pan(PAN_STEP, 0);
+                    case KeyEvent.VK_RIGHT -> camera.pan(-PAN_STEP, 0);
+                    case KeyEvent.VK_UP -> camera.pan(0, PAN_STEP);
+                    case KeyEvent.VK_DOWN -> camera.pan(0, -PAN_STEP);
                 }
             }
 
             @Override // Captura quando a tecla é solta
             public void keyReleased(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_SPACE) {
-                    spacePressed = false; // Desliga a flag
+                if (e.getKeyCode() == KeyEvent.VK_SPACE && simulation != null) {
+                    simulation.setSpacePressed(false); // Desliga a flag
+                }
+            }
+        });
+
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                camera.setViewSize(getWidth(), getHeight());
+                if (simulation != null && (WORLD_WIDTH <= 0 || WORLD_HEIGHT <= 0)) {
+                    simulation.setSize(getWidth(), getHeight());
                 }
             }
         });
 
         requestFocus();
-        this.cars = new Setup().createCars();
+        if (REPLAY_FILE != null) {
+            this.simulation = null;
+            this.replay = openReplay(REPLAY_FILE);
+            this.source = replay;
+            setTitle(getTitle() + " - replay of " + REPLAY_FILE);
+        } else {
+            this.simulation = createSimulation();
+            this.replay = null;
+            this.source = simulation;
+            if (originalImage != null) simulation.setWalls(DistanceField.load(originalImage, WALLS_CACHE));
+            if (CHECKPOINT_FILE != null) simulation.setCheckpoint(Path.of(CHECKPOINT_FILE), CHECKPOINT_INTERVAL);
+            if (RECORD_FILE != null) startRecording(RECORD_FILE);
+        }
+    }
+
+    // Resumes the checkpoint, if there is one, or starts the exercise (or the scenario) from the beginning
+    private static Simulation createSimulation() {
+        if (CHECKPOINT_FILE != null && Files.exists(Path.of(CHECKPOINT_FILE))) {
+            try {
+                final var start = System.nanoTime();
+                final var checkpoint = Checkpoint.read(Path.of(CHECKPOINT_FILE));
+                Diagnostics.log(Diagnostics.Level.INFO, "Checkpoint loaded in %d ms", (System.nanoTime() - start) / 1_000_000);
+                return new Simulation(checkpoint, USE_CAR_STORE, THREADS);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the checkpoint " + CHECKPOINT_FILE, e);
+            }
+        }
+        return new Simulation(createCars(), USE_CAR_STORE, THREADS,
+            WORLD_WIDTH > 0 ? WORLD_WIDTH : INITIAL_WIDTH, WORLD_HEIGHT > 0 ? WORLD_HEIGHT : INITIAL_HEIGHT);
+    }
+
+    private static List<Car> createCars() {
+        if (SCENARIO_FILE == null) return new Setup().createCars();
+        try {
+            final var start = System.nanoTime();
+            final var cars = Scenario.load(Path.of(SCENARIO_FILE), THREADS);
+            Diagnostics.log(Diagnostics.Level.INFO, "Scenario loaded in %d ms", (System.nanoTime() - start) / 1_000_000);
+            return cars;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the scenario " + SCENARIO_FILE, e);
+        }
+    }
+
+    private static Replay openReplay(String file) {
+        try {
+            final var replay = Replay.open(Path.of(file));
+            Diagnostics.log(Diagnostics.Level.INFO, "Replaying %d ticks", replay.getRecordCount());
+            return replay;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the recording " + file, e);
+        }
+    }
+
+    private void startRecording(String file) {
+        final var cars = simulation.getCars();
+        final var colors = new int[cars.size()];
+        for (var i = 0; i < colors.length; i++) {
+            colors[i] = cars.get(i).getColor().getRGB();
+        }
+        try {
+            final var recorder = new Recorder(Path.of(file), colors);
+            simulation.setRecorder(recorder);
+            // Writes the tick index when the window is closed
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    // Not through Diagnostics: its thread may be gone already
+                    System.err.println("Could not close the recording: " + e.getMessage());
+                }
+            }, "recorder-close"));
+            Diagnostics.log(Diagnostics.Level.INFO, "Recording to %s", file);
+        } catch (IOException e) {
+            Diagnostics.log(Diagnostics.Level.ERROR, "Could not record: %s", e.getMessage());
+        }
     }
 
     public static void main(String[] args) {
@@ -109,97 +267,113 @@ public final class Window extends JFrame implements Runnable {
 
     private void start() {
         createBufferStrategy(3);
-        final var gameLoop = new Thread(this, "game-loop");
-        gameLoop.setDaemon(true);
-        gameLoop.start();
+        camera.setViewSize(getWidth(), getHeight());
+        if (simulation != null) {
+            if (WORLD_WIDTH <= 0 || WORLD_HEIGHT <= 0) {
+                simulation.setSize(getWidth(), getHeight());
+            }
+            simulation.setTickRate(TICK_RATE);
+        }
+        source.getStats().register();
+
+        final var simulationLoop = new Thread(source, simulation != null ? "simulation-loop" : "replay-loop");
+        simulationLoop.setDaemon(true);
+        simulationLoop.start();
+
+        final var renderLoop = new Thread(this, "render-loop");
+        renderLoop.setDaemon(true);
+        renderLoop.start();
     }
 
     @Override
     public void run() {
-        double prev = System.currentTimeMillis() - 1;
-
         try {
             final var strategy = getBufferStrategy();
+            final var stats = source.getStats();
+            final var pacer = new FramePacer(FPS);
             while (true) {
-                final double now = System.currentTimeMillis();
+                final var start = System.nanoTime();
+                final var snapshot = source.latest();
                 final var g2d = (Graphics2D) strategy.getDrawGraphics();
 
-                draw(g2d);
-                update((now - prev) / 1000.0);
+                draw(g2d, snapshot, start);
 
                 g2d.dispose();
+                final var drawn = System.nanoTime();
                 Toolkit.getDefaultToolkit().sync(); // helps on some systems
-                prev = now;
+                final var synced = System.nanoTime();
                 strategy.show();
+                stats.recordFrame(start, drawn, synced, System.nanoTime());
 
-                Thread.sleep(1);
+                if (pacer.await()) stats.countLateFrame();
             }
         } catch (InterruptedException e) {
-            System.err.println("Interrupted");
+            Diagnostics.log(Diagnostics.Level.WARN, "Render loop interrupted");
         }
         System.exit(0);
     }
 
-    private void update(final double secs) {
-        cars.forEach(car -> car.update(
-                new World(
-                        secs, car, cars,
-                        mousePos, clickPos,
-                        spacePressed,
-                        getWidth(), getHeight()
-                )
-        ));
-    }
-
-    private void draw(Graphics2D g2d) {
-        // Quality hints
+    private void draw(Graphics2D g2d, Snapshot snapshot, long nanos) {
+        // Quality hints (the background is already scaled, so it does not need interpolation)
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
         g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
         g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 
-        // le imagem
-
-        if (this.carparkImage != null) {
-            // Desenha a imagem para cobrir toda a janela (para resolver o scaling lento)
-            g2d.drawImage(
-                    this.carparkImage,
-                    0, 0,
-                    getWidth(),
-                    getHeight(),
-                    null // ImageObserver (usar null é mais rápido aqui)
-            );
-        } else {
+        // Camera: from here on, g2d draws in world coordinates
+        final var alpha = snapshot.alpha(nanos);
+        final var screen = g2d.getTransform();
+        camera.apply(g2d, snapshot, alpha, view);
+        final var world = g2d.getTransform();
 
+        // Background, stretched over the world; the rest of the view is gray
+        final var worldRect = new Rectangle2D.Double(-snapshot.width / 2, -snapshot.height / 2, snapshot.width, snapshot.height);
+        g2d.setTransform(screen);
+        if (this.background == null || !worldRect.contains(view)) {
             g2d.setBackground(new Color(220, 220, 220));
             g2d.clearRect(0, 0, getWidth(), getHeight());
-
-
         }
-        // Or, draw image at (x, y) with a specified width and height
-        // g2d.drawImage(myImage, x, y, width, height, this);
-        //g2d.setBackground(new Color(220, 220, 220));
-        //g2d.clearRect(0, 0, getWidth(), getHeight());
-
-        // Center the world origin
-        g2d.translate(getWidth() / 2.0, getHeight() / 2.0);
+        if (this.background != null) {
+            // Um blit 1:1 da cópia já escalada, enquanto ela não for muito maior que a janela
+            final var scale = getWidth() / view.width;
+            this.background.draw(g2d,
+                (worldRect.x - view.x) * scale, (worldRect.y - view.y) * scale,
+                worldRect.width * scale, worldRect.height * scale,
+                getWidth(), getHeight());
+        }
+        g2d.setTransform(world);
 
-        // Click marker (relative to center)
+        // Click marker
+        final var clickPos = snapshot.clickPos;
         if (clickPos != null) {
             g2d.setColor(Color.GRAY);
             g2d.fillOval((int) clickPos.x - 4, (int) clickPos.y - 4, 8, 8);
-            System.out.println(clickPos.x +"|"+ clickPos.y);
         }
 
-        // Draw cars
-        cars.forEach(car -> car.draw(g2d, debugMode));
+        // Draw cars, interpolated between the two newest ticks, at a level of detail that fits the frame
+        final var debug = debugMode;
+        carRenderer.draw(g2d, snapshot, alpha, getWidth(), getHeight(), view, debug ? debugOverlay : null);
+        // Debug vectors in WORLD space, all cars at once
+        if (debug) {
+            debugOverlay.draw(g2d);
+        }
 
+        // Help line, in screen coordinates
+        g2d.setTransform(screen);
         g2d.setFont(new Font("Arial", Font.PLAIN, 10));
         g2d.setColor(Color.DARK_GRAY);
         g2d.drawString(
-            "Press D to turn debug arrows %s".formatted(debugMode ? "off" : "on"),
-            20.0f - getWidth() / 2.0f, getHeight() / 2.0f - 20.0f
+            "Press D to turn debug arrows %s | Wheel/right drag/arrows: zoom and pan, F: follow, C: reset | %d of %d cars, %s"
+                .formatted(debugMode ? "off" : "on", carRenderer.getVisibleCount(), snapshot.count, carRenderer.getLod()),
+            20.0f, getHeight() - 20.0f
         );
+        if (replay != null) {
+            g2d.drawString(
+                "Replay: tick %d of %d, %sx%s | P: pause, +/-: speed, [/]: seek %.0fs, 0: restart"
+                    .formatted(snapshot.tick, replay.getLastTick(), replay.getSpeed(), replay.isPaused() ? " (paused)" : "",
+                        REPLAY_SEEK_SECONDS),
+                20.0f, getHeight() - 34.0f
+            );
+        }
     }
 }
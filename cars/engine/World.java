@@ -1,66 +1,347 @@
 package cars.engine;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
 
 import static cars.engine.Car.distance;
+import static cars.engine.Vector2.vec2;
 
+/**
+ * The world as seen by one car: the {@link TickContext} of the current tick, plus which car
+ * is asking.
+ * <p>
+ * The simulation keeps one view per car and binds it to the new context every tick, so no
+ * World is created while the cars update. Views must not be kept between ticks.
+ */
 public final class World {
+    private static final int UNKNOWN_INDEX = -2;
+
     private final Car current;
-    private final List<Car> cars;
-    private final Vector2 mousePos;   // absolute scene coords; may be null
-    private final Vector2 clickPos;   // center-relative coords; may be null
-    private final double secs;
-    private final boolean spacePressed;
+    private TickContext tick;
+    // Position of the current car in the car list, or UNKNOWN_INDEX until first needed
+    private int index;
+    private final Others others = new Others();
 
-    private final double width;
-    private final double height;
+    public World(double secs,
+                 Car current,
+                 List<Car> cars,
+                 Vector2 mousePos,
+                 Vector2 clickPos,
+                 boolean spacePressed,
+                 double width,
+                 double height) {
+        this(secs, current, cars, null, mousePos, clickPos, spacePressed, width, height);
+    }
 
     public World(double secs,
                  Car current,
                  List<Car> cars,
+                 SpatialGrid grid,
                  Vector2 mousePos,
                  Vector2 clickPos,
                  boolean spacePressed,
                  double width,
                  double height) {
+        this(new TickContext(secs, cars, grid, mousePos, clickPos, spacePressed, width, height), current);
+    }
+
+    /**
+     * Creates a view of the given tick for a car.
+     *
+     * @param tick    The tick context.
+     * @param current The car this view belongs to.
+     */
+    public World(TickContext tick, Car current) {
+        this(current, UNKNOWN_INDEX);
+        this.tick = tick;
+    }
+
+    // Unbound view for the car at the given index: bind() must be called before it is used
+    World(Car current, int index) {
         this.current = current;
-        this.cars = cars;
-        this.mousePos = mousePos;
-        this.clickPos = clickPos;
-        this.secs = secs;
-        this.spacePressed = spacePressed;
-        this.width = width;
-        this.height = height;
+        this.index = index;
     }
 
+    /**
+     * Points this view to a new tick. The car list must not change order between ticks.
+     */
+    void bind(TickContext tick) {
+        this.tick = tick;
+    }
+
+    public TickContext getTick() { return tick; }
+
     public Vector2 getMousePos() {
-        return mousePos == null ? null : mousePos.clone();
+        return tick.hasMousePos() ? vec2(tick.getMouseX(), tick.getMouseY()) : null;
     }
 
     public Vector2 getClickPos() {
-        return clickPos == null ? null : clickPos.clone();
+        return tick.hasClickPos() ? vec2(tick.getClickX(), tick.getClickY()) : null;
+    }
+
+    /**
+     * Allocation-free version of {@link #getMousePos()}.
+     *
+     * @param dest Vector that receives the mouse position.
+     * @return dest, or null if the mouse position is unknown.
+     */
+    public Vector2 getMousePos(Vector2 dest) {
+        return tick.hasMousePos() ? dest.set(tick.getMouseX(), tick.getMouseY()) : null;
+    }
+
+    /**
+     * Allocation-free version of {@link #getClickPos()}.
+     *
+     * @param dest Vector that receives the click position.
+     * @return dest, or null if no click was given yet.
+     */
+    public Vector2 getClickPos(Vector2 dest) {
+        return tick.hasClickPos() ? dest.set(tick.getClickX(), tick.getClickY()) : null;
     }
 
+    // Primitive input accessors: the position getters are only meaningful if the has method returns true
+    public boolean hasMousePos() { return tick.hasMousePos(); }
+    public double getMouseX() { return tick.getMouseX(); }
+    public double getMouseY() { return tick.getMouseY(); }
+    public boolean hasClickPos() { return tick.hasClickPos(); }
+    public double getClickX() { return tick.getClickX(); }
+    public double getClickY() { return tick.getClickY(); }
+
+    /**
+     * @return A read-only view of all cars but the current one. The view is not copied,
+     * so this is cheap even with many cars. Valid during the current tick only.
+     */
     public List<Car> getNeighbors() {
-        return this.cars.stream()
-            .filter(c -> c != current)
-            .toList();
+        if (index == UNKNOWN_INDEX) {
+            index = tick.getCars().indexOf(current);
+        }
+        others.cars = tick.getCars();
+        others.skip = index;
+        return others;
     }
 
     public List<Car> getNeighbors(int radius) {
-        return this.cars.stream()
+        final var grid = tick.getGrid();
+        if (grid != null) {
+            return grid.neighbors(current, radius);
+        }
+        return tick.getCars().stream()
             .filter(c -> c != current)
             .filter(c -> distance(current, c) <= radius)
             .toList();
     }
+
+    /**
+     * Allocation-free version of {@link #getNeighbors(int)}.
+     *
+     * @param radius The neighborhood radius.
+     * @param result A list that is cleared and receives the neighbors.
+     * @return The result list.
+     */
+    public List<Car> getNeighbors(int radius, List<Car> result) {
+        result.clear();
+        final var grid = tick.getGrid();
+        if (grid != null) {
+            grid.collect(current.x(), current.y(), radius, current, result);
+            return result;
+        }
+        for (var c : tick.getCars()) {
+            if (c != current && distance(current, c) <= radius) result.add(c);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the k cars closest to the current one.
+     *
+     * @param k Maximum number of cars returned.
+     * @return A new list with the cars, closest first.
+     */
+    public List<Car> getNearest(int k) {
+        return getNearest(k, null, new ArrayList<>(Math.max(0, k)));
+    }
+
+    /**
+     * Returns the k cars of the given type closest to the current one.
+     *
+     * @param k    Maximum number of cars returned.
+     * @param type Only cars of this type (or subtypes) are returned. Null means any car.
+     * @return A new list with the cars, closest first.
+     */
+    public List<Car> getNearest(int k, Class<? extends Car> type) {
+        return getNearest(k, type, new ArrayList<>(Math.max(0, k)));
+    }
+
+    /**
+     * Allocation-free version of {@link #getNearest(int, Class)}.
+     *
+     * @param k      Maximum number of cars returned.
+     * @param type   Only cars of this type (or subtypes) are returned. Null means any car.
+     * @param result A list that is cleared and receives the cars, closest first.
+     * @return The result list.
+     */
+    public List<Car> getNearest(int k, Class<? extends Car> type, List<Car> result) {
+        result.clear();
+        final var kdTree = tick.getKdTree();
+        if (kdTree != null) {
+            kdTree.nearest(current.x(), current.y(), k, current, type, result);
+        } else {
+            KdTree.nearest(tick.getCars(), current.x(), current.y(), k, current, type, result);
+        }
+        return result;
+    }
+
+    /**
+     * The sum of the repulsion of all cars within the radius: each one pushes the current car
+     * away with a force that falls linearly, from factor when both are at the same place, to zero
+     * at the radius. The result is not truncated.
+     * <p>
+     * In the simulation, the forces of all cars are calculated at once, handling each pair of
+     * cars once (see {@link PairAvoidance}); otherwise, they are added up for this car only.
+     *
+     * @param radius Distance where the repulsion reaches zero.
+     * @param factor Repulsion between two cars at the same place.
+     * @param dest   The vector that receives the force.
+     * @return dest.
+     */
+    public Vector2 getAvoidance(double radius, double factor, Vector2 dest) {
+        final var pairs = tick.getPairAvoidance();
+        if (pairs != null && index >= 0) {
+            return pairs.get(radius, factor).get(index, dest);
+        }
+
+        dest.set(0, 0);
+        final var grid = tick.getGrid();
+        if (grid != null) {
+            grid.repulsion(current.x(), current.y(), radius, factor, current, dest);
+            return dest;
+        }
+        final var r2 = radius * radius;
+        for (final var car : tick.getCars()) {
+            if (car != current) SpatialGrid.addRepulsion(current.x(), current.y(), car.x(), car.y(), r2, radius, factor, dest);
+        }
+        return dest;
+    }
+
+    /**
+     * The force of the car's {@link Car#getBatchBehavior() batch behavior}, calculated by the
+     * engine for this tick. Only available when the car state is kept in a {@link CarStore}.
+     *
+     * @param dest The vector that receives the force.
+     * @return dest, or null if the engine did not calculate the force: the car must do it itself.
+     * That is also the case of the behaviors that go to the mouse when the world has walls.
+     */
+    public Vector2 getBatchForce(Vector2 dest) {
+        return current.batchForce(dest, hasWalls());
+    }
+
+    /**
+     * @return True if the world has walls to query with {@link #getWallDistance}.
+     */
+    public boolean hasWalls() { return tick.getWalls() != null; }
+
+    /**
+     * The distance from the current car to the nearest wall, and the direction that moves it away.
+     *
+     * @see #getWallDistance(double, double, Vector2)
+     */
+    public double getWallDistance(Vector2 push) {
+        return getWallDistance(current.x(), current.y(), push);
+    }
+
+    /**
+     * The distance from a point to the nearest wall, and the direction that moves away from it,
+     * read from the {@link DistanceField} of the map: the cost does not depend on the map.
+     *
+     * @param push Receives the unit direction out of the walls, or zero if there is none. May be null.
+     * @return The distance in world units, negative inside a wall, or positive infinity if the
+     *         world has no walls.
+     */
+    public double getWallDistance(double x, double y, Vector2 push) {
+        final var walls = tick.getWalls();
+        if (walls == null) {
+            if (push != null) push.set(0, 0);
+            return Double.POSITIVE_INFINITY;
+        }
+        return walls.distance(x, y, tick.getWidth(), tick.getHeight(), push);
+    }
+
+    /**
+     * The way from the current car to a target, around the walls: the direction to go now, and
+     * the distance along the way.
+     * <p>
+     * In the simulation, the way is read from a {@link FlowFields flow field} shared by all cars
+     * going to the same part of the world, so it costs the same however many cars follow it.
+     * Otherwise, or without walls, it is the straight line.
+     *
+     * @param dest Receives the unit direction, or zero at the target.
+     * @return The distance along the way.
+     */
+    public double getFlowTo(double tx, double ty, Vector2 dest) {
+        final var flows = tick.getFlowFields();
+        // Without walls every cell sees the target: no field to build
+        if (flows == null || tick.getWalls() == null) return FlowFields.straight(current.x(), current.y(), tx, ty, dest);
+        return flows.sample(current.x(), current.y(), tx, ty, dest);
+    }
+
+    /**
+     * The way from the current car to the mouse, around the walls.
+     *
+     * @param dest Receives the unit direction, or zero at the mouse or without it.
+     * @return The distance along the way, or NaN if the mouse position is unknown.
+     * @see #getFlowTo(double, double, Vector2)
+     */
+    public double getFlowToMouse(Vector2 dest) {
+        if (!tick.hasMousePos()) {
+            dest.set(0, 0);
+            return Double.NaN;
+        }
+        return getFlowTo(tick.getMouseX(), tick.getMouseY(), dest);
+    }
+
+    /**
+     * The way from the current car to the last click, around the walls.
+     *
+     * @param dest Receives the unit direction, or zero at the click or without it.
+     * @return The distance along the way, or NaN if there was no click yet.
+     * @see #getFlowTo(double, double, Vector2)
+     */
+    public double getFlowToClick(Vector2 dest) {
+        if (!tick.hasClickPos()) {
+            dest.set(0, 0);
+            return Double.NaN;
+        }
+        return getFlowTo(tick.getClickX(), tick.getClickY(), dest);
+    }
+
     public boolean isSpacePressed() {
-        return spacePressed;
+        return tick.isSpacePressed();
     }
 
     public double getSecs() {
-        return secs;
+        return tick.getSecs();
     }
 
-    public double getWidth() { return width; }
-    public double getHeight() { return height; }
+    public double getWidth() { return tick.getWidth(); }
+    public double getHeight() { return tick.getHeight(); }
+
+    // The car list, skipping the car at the given index
+    private static final class Others extends AbstractList<Car> implements RandomAccess {
+        private List<Car> cars;
+        private int skip;
+
+        @Override
+        public Car get(int index) {
+            Objects.checkIndex(index, size());
+            return cars.get(skip >= 0 && index >= skip ? index + 1 : index);
+        }
+
+        @Override
+        public int size() {
+            return skip >= 0 ? cars.size() - 1 : cars.size();
+        }
+    }
 }
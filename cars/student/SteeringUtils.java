@@ -4,15 +4,7 @@ import cars.engine.Car;
 import cars.engine.Vector2;
 import cars.engine.World;
 
-// lista de vizinhos
-import java.util.List;
-
-
 import static cars.engine.Vector2.vec2;
-import static cars.engine.Vector2.subtract;
-import static cars.engine.Vector2.normalize;
-import static cars.engine.Vector2.multiply;
-import static cars.engine.Vector2.truncate;
 
 
 public final class SteeringUtils {
@@ -31,43 +23,25 @@ public final class SteeringUtils {
      * @return O Vector2 da força de desvio, limitado pela força máxima do carro.
      */
     public static Vector2 calculateAvoidance(Car currentCar, final World world) {
+        return calculateAvoidance(currentCar, world, vec2());
+    }
 
-        // 1. Obter os vizinhos dentro do raio de detecção (usa java.util.List)
-        List<Car> neighbors = world.getNeighbors(AVOIDANCE_RADIUS);
-
-        if (neighbors.isEmpty()) {
-            return vec2(); // Retorna vetor zero se não houver vizinhos
-        }
-
-        Vector2 avoidanceForce = vec2();
-
-        for (Car neighbor : neighbors) {
-            Vector2 displacement = subtract(currentCar.getPosition(), neighbor.getPosition());
-            double distance = displacement.size();
-
-            Vector2 direction = normalize(displacement);
-
-
-
-            // Ponderação (Strength):
-            // O Desvio deve ser máximo (1.0) quando a distância é pequena, e zero no limite do raio.
-            // (AVOIDANCE_RADIUS - distance) / AVOIDANCE_RADIUS
-
-            // Calcula o quanto estamos "dentro" do raio (0 a 1)
-            double innerDistance = AVOIDANCE_RADIUS - distance;
-
-            // Força Máxima (ex: 2000) * Ponderação Linear (o quanto está dentro do raio)
-            double strength = REPULSION_FACTOR * (innerDistance / AVOIDANCE_RADIUS);
-
-            // Garantimos que a força não seja negativa (caso o carro esteja fora por pouco)
-            if (strength < 0) strength = 0;
-
-            // Cria o vetor de repulsão
-            Vector2 repulsion = multiply(direction, strength);
-            avoidanceForce.add(repulsion);
-        }
-
-        // 2. Limita a força total gerada (a Avoidance Force não pode ser maior que o maxForce do carro)
-        return truncate(avoidanceForce, currentCar.getMaxForce());
+    /**
+     * Versão sem alocação de {@link #calculateAvoidance(Car, World)}: o resultado é gravado em avoidanceForce.
+     * @param avoidanceForce Vetor que recebe a força de desvio.
+     * @return O próprio avoidanceForce.
+     */
+    public static Vector2 calculateAvoidance(Car currentCar, final World world, Vector2 avoidanceForce) {
+        // Para cada vizinho dentro do raio de detecção, o motor calcula:
+        // - a direção do vizinho para o carro (o deslocamento normalizado);
+        // - a ponderação (strength): o desvio deve ser máximo (REPULSION_FACTOR) quando a distância
+        //   é pequena, e zero no limite do raio: REPULSION_FACTOR * (AVOIDANCE_RADIUS - distance) / AVOIDANCE_RADIUS
+        // e soma direção * strength de todos os vizinhos.
+        // A repulsão entre dois carros é a mesma dos dois lados, com o sinal trocado: o motor calcula
+        // cada par de carros uma vez só e já soma no carro e subtrai no vizinho.
+        world.getAvoidance(AVOIDANCE_RADIUS, REPULSION_FACTOR, avoidanceForce);
+
+        // Limita a força total gerada (a Avoidance Force não pode ser maior que o maxForce do carro)
+        return avoidanceForce.truncate(currentCar.getMaxForce());
     }
-}
\ No newline at end of file
+}
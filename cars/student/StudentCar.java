@@ -1,20 +1,16 @@
 package cars.student;
 
 import cars.engine.Car;
+import cars.engine.Diagnostics;
 import cars.engine.Vector2;
 import cars.engine.World;
 import static cars.student.SteeringUtils.calculateAvoidance;
 
 import java.awt.*;
+import java.nio.ByteBuffer;
 
 import static cars.engine.Vector2.vec2;
 import java.util.random.RandomGenerator;
-import static cars.engine.Vector2.normalize;
-import static cars.engine.Vector2.subtract;
-import static cars.engine.Vector2.truncate;
-import static cars.engine.Vector2.multiply;
-import static cars.engine.Vector2.add;
-import static cars.engine.Vector2.byAngle;
 import static java.lang.Math.toRadians;
 //Aqui tinha o básico que a professora passou, mas aí modificamos para fazer o carro AMARELO
 
@@ -36,6 +32,13 @@ public class StudentCar extends Car {
     private static final double WANDER_ANGLE_CHANGE = toRadians(270);
     private double wanderAngle; // Ângulo interno de Wander
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 mousePos = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+    private final Vector2 circleCenter = vec2();
+    private final Vector2 displacement = vec2();
+
     public StudentCar(Color cor, double x, double y) {
         super(settings ->
           settings
@@ -54,10 +57,11 @@ public class StudentCar extends Car {
         //logica de troca de estado com o ESPAÇO
         if (world.isSpacePressed()) {
             state = (state + 1) % 4; // Ciclo: 0 -> 1 -> 2 -> 3 -> 0 ...
-            System.out.println("Comportamento mudado para estado: " + state);
+            // Registrado pelo canal de diagnóstico: não bloqueia o tick com I/O
+            Diagnostics.log(Diagnostics.Level.INFO, "Comportamento mudado para estado: %d", state);
         }
 
-        Vector2 targetPos = world.getMousePos();
+        Vector2 targetPos = world.getMousePos(mousePos);
 
         // Se não houver mouse e não estiver em WANDER, retorna nulo
         if (targetPos == null && state != STATE_WANDER) {
@@ -65,37 +69,48 @@ public class StudentCar extends Car {
         }
 
         return switch (state) {
-            case STATE_SEEK -> calculateSeek(targetPos);
+            case STATE_SEEK -> calculateSeek(world);
             case STATE_FLEE -> calculateFlee(targetPos);
-            case STATE_ARRIVE -> calculateArrive(targetPos);
+            case STATE_ARRIVE -> calculateArrive(world);
             case STATE_WANDER -> calculateWander(world);
             default -> null;
         };
     }
+    // Estado salvo no checkpoint: o comportamento atual e o ângulo do Wander
+    @Override
+    protected void writeState(ByteBuffer out) {
+        out.putInt(state).putDouble(wanderAngle);
+    }
+
+    @Override
+    protected void readState(ByteBuffer in) {
+        state = in.getInt();
+        wanderAngle = in.getDouble();
+    }
+
 // --- MÉTODOS DE COMPORTAMENTO ---
 
-    // SEEK
-    private Vector2 calculateSeek(Vector2 targetPos) {
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
-        desiredVelocity.resize(getMaxSpeed());
+    // SEEK: segue o caminho até o mouse, contornando as paredes (flow field compartilhado)
+    private Vector2 calculateSeek(World world) {
+        world.getFlowToMouse(desiredVelocity);
+        desiredVelocity.multiply(getMaxSpeed());
 
-        Vector2 steeringForce = subtract(desiredVelocity, getVelocity());
-        return truncate(steeringForce, getMaxForce());
+        steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
+        return steeringForce.truncate(getMaxForce());
     }
 
     //FLEE
     private Vector2 calculateFlee(Vector2 targetPos) {
-        Vector2 desiredVelocity = subtract(getPosition(), targetPos); // Inverte para fugir
+        desiredVelocity.setDifference(getPosition(desiredVelocity), targetPos); // Inverte para fugir
         desiredVelocity.resize(getMaxSpeed());
 
-        Vector2 steeringForce = subtract(desiredVelocity, getVelocity());
-        return truncate(steeringForce, getMaxForce());
+        steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
+        return steeringForce.truncate(getMaxForce());
     }
 
-    // 2. Comportamento ARRIVE (Chegar)
-    private Vector2 calculateArrive(Vector2 targetPos) {
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
-        double distance = desiredVelocity.size();
+    // 2. Comportamento ARRIVE (Chegar), pelo caminho até o mouse: a distância é a do caminho
+    private Vector2 calculateArrive(World world) {
+        double distance = world.getFlowToMouse(desiredVelocity);
 
         double desiredSpeed;
         if (distance <= DECELERATION_RADIUS) {
@@ -104,36 +119,32 @@ public class StudentCar extends Car {
             desiredSpeed = getMaxSpeed();
         }
 
-        desiredVelocity = normalize(desiredVelocity);
         desiredVelocity.multiply(desiredSpeed);
 
-        Vector2 steeringForce = subtract(desiredVelocity, getVelocity());
-        return truncate(steeringForce, getMaxForce());
+        steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
+        return steeringForce.truncate(getMaxForce());
     }
 
     // 3. Comportamento WANDER (Aleatório)
     private Vector2 calculateWander(World world) {
         // 1. Centro do círculo à frente
-        Vector2 circleCenter = multiply(getDirection(), WANDER_CIRCLE_DISTANCE);
+        getDirection(circleCenter).multiply(WANDER_CIRCLE_DISTANCE);
 
         // 2. Mudança suave de ângulo
         double angleChange = (RND.nextDouble(-1.0, 1.0) * WANDER_ANGLE_CHANGE) * world.getSecs();
         wanderAngle += angleChange;
 
         // 3. Posição do alvo na borda do círculo
-        Vector2 displacement = byAngle(wanderAngle);
-        displacement.multiply(WANDER_CIRCLE_RADIUS);
-
-        // 4. Posição final do alvo no mundo (posição do carro + centro + deslocamento)
-        Vector2 wanderTarget = add(getPosition(), circleCenter, displacement);
+        displacement.setAngleSize(wanderAngle, WANDER_CIRCLE_RADIUS);
 
-        // 5. Seek para o alvo de Wander
-        Vector2 desiredVelocity = subtract(wanderTarget, getPosition());
+        // 4. Posição final do alvo, relativa ao carro (centro + deslocamento)
+        // 5. Seek para o alvo de Wander: (posição + alvo relativo) - posição = alvo relativo
+        desiredVelocity.setSum(circleCenter, displacement);
         desiredVelocity.resize(getMaxSpeed());
 
-        Vector2 steeringForce = subtract(desiredVelocity, getVelocity());
+        steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
 
-        return truncate(steeringForce, getMaxForce());
+        return steeringForce.truncate(getMaxForce());
     }
 
     /**
@@ -1,12 +1,11 @@
 package cars.student;
 
+import cars.engine.BatchBehavior;
 import cars.engine.Vector2;
 import cars.engine.World;
 
 import java.awt.Color;
 
-import static cars.engine.Vector2.normalize;
-import static cars.engine.Vector2.subtract;
 import static cars.engine.Vector2.vec2;
 
 // AGORA HERDA DE StudentCarBase
@@ -14,6 +13,10 @@ public class StudentCarArrive extends StudentCarBase {
 
     private static final double DECELERATION_RADIUS = 500.0;
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+
     public StudentCarArrive(Color cor, double x, double y) {
         super(settings ->
                 settings
@@ -25,16 +28,25 @@ public class StudentCarArrive extends StudentCarBase {
     }
 
 
+    // O motor sabe calcular esse Arrive para muitos carros de uma vez (SteeringKernels).
+    // Dentro do raio, a velocidade vai de 1/3 da máxima (na borda) até zero (no alvo), como abaixo.
     @Override
-    public Vector2 calculateBehaviorForce(final World world) {
-        final Vector2 targetPos = world.getMousePos();
+    protected BatchBehavior getBatchBehavior() {
+        return BatchBehavior.arriveMouse(DECELERATION_RADIUS, 1.0 / 3);
+    }
 
-        if (targetPos == null) {
-            return vec2();
+    @Override
+    public Vector2 calculateBehaviorForce(final World world) {
+        // Se o motor já calculou a força em lote, é só usar (ele só calcula sem paredes, em linha reta)
+        if (world.getBatchForce(steeringForce) != null) {
+            return steeringForce;
         }
 
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
-        double distance = desiredVelocity.size();
+        // Direção e distância do caminho até o mouse, contornando as paredes (flow field compartilhado)
+        double distance = world.getFlowToMouse(desiredVelocity);
+        if (Double.isNaN(distance)) {
+            return steeringForce.set(0, 0);
+        }
 
         // Lógica de desaceleração (Arrive)
         double desiredSpeed;
@@ -44,10 +56,9 @@ public class StudentCarArrive extends StudentCarBase {
             desiredSpeed = getMaxSpeed();
         }
 
-        desiredVelocity = normalize(desiredVelocity);
         desiredVelocity.multiply(desiredSpeed);
 
         // Retorna a força bruta de direção. O limite será aplicado no StudentCarBase.
-        return subtract(desiredVelocity, getVelocity());
+        return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
     }
 }
\ No newline at end of file
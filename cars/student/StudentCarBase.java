@@ -6,9 +6,7 @@ import cars.engine.World;
 
 
 import static cars.student.SteeringUtils.calculateAvoidance;
-import static cars.engine.Vector2.multiply;
-import static cars.engine.Vector2.add;
-import static cars.engine.Vector2.truncate;
+import static cars.engine.Vector2.vec2;
 import java.util.function.Consumer;
 import cars.engine.Settings;
 
@@ -17,12 +15,17 @@ import java.util.function.Consumer;
 // Classe base para o comportamento dos carros - todos os carros possuem desvio de colisão e truncate.
 public abstract class StudentCarBase extends Car {
 
+    // Vetores reaproveitados a cada quadro, para não alocar nada no cálculo
+    private final Vector2 avoidanceForce = vec2();
+    private final Vector2 finalForce = vec2();
+
     // Construtor da classe Car
     public StudentCarBase(Consumer<Settings> settings) {
         super(settings);
     }
 
 
+    // Pode devolver sempre o mesmo vetor (um campo da classe filha): ele é usado antes da próxima chamada
     public abstract Vector2 calculateBehaviorForce(final World world);
 
 
@@ -31,19 +34,18 @@ public abstract class StudentCarBase extends Car {
 
         // Para evitar erros
         Vector2 behaviorForce = calculateBehaviorForce(world); //pega um comportamento da classe filha
-        if (behaviorForce == null) {
-            behaviorForce = Vector2.vec2(); // Força zero se o comportamento não retornar nada
-        }
 
         //Pega o avoidanceForce que está na Classe SteeringUtils aqui confesso que não entendi o que acontece, é magica.
-        Vector2 avoidanceForce = calculateAvoidance(this, world);
+        calculateAvoidance(this, world, avoidanceForce);
 
         // Damos PRIORIDADE ao Desvio multiplicando-o por 2.0. Isso garante que o carro vire para evitar a colisão.
-        Vector2 prioritizedAvoidance = multiply(avoidanceForce, 2.0);
-        Vector2 finalForce = add(behaviorForce, prioritizedAvoidance);
+        finalForce.setScaled(avoidanceForce, 2.0);
+        if (behaviorForce != null) { // Força zero se o comportamento não retornar nada
+            finalForce.setSum(behaviorForce, finalForce);
+        }
 
         // o truncate garante que a força total não exceda o máximo permitida (que a gente escolhe na classe)
-        return truncate(finalForce, getMaxForce());
+        return finalForce.truncate(getMaxForce());
     }
 
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package cars.student;
 
+import cars.engine.BatchBehavior;
 import cars.engine.Vector2;
 import cars.engine.World;
 
@@ -16,6 +17,11 @@ public class StudentCarFlee extends StudentCarBase {
     // raio de fuga
     private static final double PANIC_RADIUS = 300.0;
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 targetPos = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+
     public StudentCarFlee(Color cor, double x, double y) {
         super(settings ->
                 settings
@@ -28,32 +34,40 @@ public class StudentCarFlee extends StudentCarBase {
     }
 
 
+    // O motor sabe calcular essa fuga para muitos carros de uma vez (SteeringKernels)
     @Override
-    public Vector2 calculateBehaviorForce(final World world) {
+    protected BatchBehavior getBatchBehavior() {
+        return BatchBehavior.fleeMouse(PANIC_RADIUS);
+    }
 
-        final Vector2 targetPos = world.getMousePos();
+    @Override
+    public Vector2 calculateBehaviorForce(final World world) {
+        // Se o motor já calculou a força em lote, é só usar
+        if (world.getBatchForce(steeringForce) != null) {
+            return steeringForce;
+        }
 
-        if (targetPos == null) {
-            return vec2();
+        if (world.getMousePos(targetPos) == null) {
+            return steeringForce.set(0, 0);
         }
 
         // Calcular o vetor do carro ao mouse e a distância
-        Vector2 displacement = subtract(targetPos, getPosition());
-        double distance = displacement.size();
+        Vector2 position = getPosition(desiredVelocity);
+        double distance = Vector2.distance(targetPos, position);
 
 
         // Se a distância for MAIOR que o raio, o carro não sente a ameaça e a força de fuga é zero.
         if (distance > PANIC_RADIUS) {
-            return vec2();
+            return steeringForce.set(0, 0);
         }
 
         // Lógica de FUGA (Flee) Sò funciona dentro do PANIC_RADIUS
-        Vector2 desiredVelocity = subtract(getPosition(), targetPos);
+        desiredVelocity.setDifference(position, targetPos);
 
         // Define a Velocidade Desejada (Direção * Velocidade Máxima)
         desiredVelocity.resize(getMaxSpeed());
 
         // Flexa amarela (desiredVelocity) - Seta azul (Velocidade atual)
-        return subtract(desiredVelocity, getVelocity());
+        return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
     }
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package cars.student;
 
 import cars.engine.Car;
+import cars.engine.Path;
 import cars.engine.Vector2;
 import cars.engine.World;
 
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.random.RandomGenerator;
 
@@ -13,8 +15,8 @@ import static java.lang.Math.toRadians;
 //Aqui tinha o básico que a professora passou, mas aí modificamos para fazer o carro AMARELO
 
 public class StudentCarFollowPath extends Car {
-    //Caminho que o carro roxo segue
-    private static final Vector2[] Path = {
+    //Caminho que o carro roxo segue, em loop. Todos os carros compartilham o mesmo caminho.
+    private static final Path PATH = Path.loop(
             new Vector2 (-480,330),
             new Vector2(490,330),
             new Vector2(490,10),
@@ -27,8 +29,18 @@ public class StudentCarFollowPath extends Car {
             new Vector2(490,-282),
             new Vector2(490,8),
             new Vector2(-490,8)
-    };
-    private static int i = 0;
+    );
+    // Distância, ao longo do caminho, do ponto que o carro persegue
+    private static final double LOOKAHEAD = 30;
+
+    // Cada carro tem o seu cursor: onde ele está no caminho
+    private final Path.Cursor cursor = PATH.cursor();
+
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 position = vec2();
+    private final Vector2 targetPos = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
 
     public StudentCarFollowPath(Color cor, double x, double y) {
         super(settings ->
@@ -42,17 +54,26 @@ public class StudentCarFollowPath extends Car {
 
         );
     }
+    // Salva onde o carro está no caminho
     @Override
-    public Vector2 calculateSteering(final World world) {
-        // Este if verifica se o carro chegou no alvo
-        if ((this.getPosition().x >= Path[i].x-2 &&  this.getPosition().x <= Path[i].x+2)&& (this.getPosition().y >= Path[i].y -2 && this.getPosition().y <= Path[i].y+2)){
-            i++; // progressao na lista
-        if (i >= Path.length) {i = 0;}} // verifica se chegou no final ta lista e reseta para o começo.
+    protected void writeState(ByteBuffer out) {
+        out.putDouble(cursor.getDistance());
+    }
 
-        final Vector2 targetPos = Path[i];
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
+    @Override
+    protected void readState(ByteBuffer in) {
+        cursor.setDistance(in.getDouble());
+    }
+
+    @Override
+    public Vector2 calculateSteering(final World world) {
+        // O alvo fica um pouco à frente do ponto do caminho mais perto do carro, então o carro
+        // não precisa acertar cada ponto (e não fica dando voltas em torno de um que errou)
+        final Vector2 position = getPosition(this.position);
+        cursor.lookahead(position.x, position.y, LOOKAHEAD, targetPos);
+        desiredVelocity.setDifference(targetPos, position);
         desiredVelocity.resize(getMaxSpeed());
-        return subtract(desiredVelocity, getVelocity());
+        return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
     }
 
     /**
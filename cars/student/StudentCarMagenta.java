@@ -2,29 +2,43 @@ package cars.student;
 
 
 import cars.engine.Car;
+import cars.engine.Path;
 import cars.engine.Vector2;
 import cars.engine.World;
 
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Random;
 
-import static cars.engine.Vector2.subtract;
 import static cars.engine.Vector2.vec2;
 //Carro com duas funcionalidades: Seek e Follow Path
 public class StudentCarMagenta extends StudentCarBase {
 
     int currentTargetCar = 0;
-    private static final Vector2[] Path = {
+    // Caminho percorrido uma vez antes de cada perseguição, compartilhado por todos os carros
+    private static final Path PATH = Path.open(
             vec2(-350, -200),
             vec2(350, -200),
             vec2(350, 220),
             vec2(-350, 210)
-    };
+    );
+    // Distância, ao longo do caminho, do ponto que o carro persegue
+    private static final double LOOKAHEAD = 40;
+    // A esta distância do fim, o caminho está completo
+    private static final double END_RADIUS = 7;
     private static final int STATE_FOLLOW_PATH = 0;
     private static final int STATE_SEEK = 1;
     int state= STATE_FOLLOW_PATH;
-    private static int i = 0;
+    // Cada carro tem o seu cursor: onde ele está no caminho
+    private final Path.Cursor cursor = PATH.cursor();
+    private static final Random number = new Random();
+
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 position = vec2();
+    private final Vector2 targetPos = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
     public StudentCarMagenta(Color cor, double x, double y) {
         super(settings ->
                 settings
@@ -36,42 +50,53 @@ public class StudentCarMagenta extends StudentCarBase {
         );
     }
 
+    // Salva o estado, o carro perseguido e onde o carro está no caminho
+    @Override
+    protected void writeState(ByteBuffer out) {
+        out.putInt(state).putInt(currentTargetCar).putDouble(cursor.getDistance());
+    }
+
+    @Override
+    protected void readState(ByteBuffer in) {
+        state = in.getInt();
+        currentTargetCar = in.getInt();
+        cursor.setDistance(in.getDouble());
+    }
+
         // calculo do Seek
     @Override
     public Vector2 calculateBehaviorForce(final World world) {
-        Random number = new Random();
         // Obter os vizinhos e verificar se a lista não está vazia
         List<Car> neighbors = world.getNeighbors();
         if (neighbors.isEmpty()) {
-            return vec2();
+            return steeringForce.set(0, 0);
         }
+        final Vector2 position = getPosition(this.position);
 
         // Pega o Vector2 do ultimo carro na lista e pega a posição
         switch (state) {
 
             case STATE_FOLLOW_PATH -> {
-                if ((this.getPosition().x >= Path[i].x - 7 && this.getPosition().x <= Path[i].x + 7) && (this.getPosition().y >= Path[i].y - 7 && this.getPosition().y <= Path[i].y + 7)) {
-                    i++; // progressao na lista
-                    if (i >= Path.length) {
-                        i = 0;
-                        state = STATE_SEEK;
-                    }
+                // O alvo fica um pouco à frente do ponto do caminho mais perto do carro
+                cursor.lookahead(position.x, position.y, LOOKAHEAD, targetPos);
+                if (cursor.getDistance() >= PATH.getLength() - END_RADIUS) {
+                    cursor.reset(); // a próxima volta começa do início
+                    state = STATE_SEEK;
                 }
-                final Vector2 targetPos = Path[i];
-                Vector2 desiredVelocity = subtract(targetPos, getPosition());
+                desiredVelocity.setDifference(targetPos, position);
                 desiredVelocity.resize(getMaxSpeed());
-                return subtract(desiredVelocity, getVelocity());
+                return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
 
             }
             case STATE_SEEK -> {
-                final Vector2 targetPos = neighbors.get(currentTargetCar).getPosition();
-                Vector2 desiredVelocity = subtract(targetPos, getPosition());
-                desiredVelocity.resize(getMaxSpeed());
-                if (subtract(targetPos, getPosition()).size() < 75) {
+                neighbors.get(currentTargetCar).getPosition(targetPos);
+                desiredVelocity.setDifference(targetPos, position);
+                if (desiredVelocity.size() < 75) {
                     currentTargetCar = number.nextInt(neighbors.size());
                     state = STATE_FOLLOW_PATH;
                 }
-                return subtract(desiredVelocity, getVelocity());
+                desiredVelocity.resize(getMaxSpeed());
+                return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
             }
         }
 
@@ -1,14 +1,13 @@
 package cars.student;
 
 
+import cars.engine.BatchBehavior;
 import cars.engine.Vector2;
 import cars.engine.World;
 
 import java.awt.*;
 
 
-import static cars.engine.Vector2.subtract;
-import static cars.engine.Vector2.normalize;
 import static cars.engine.Vector2.vec2;
 
 
@@ -16,6 +15,10 @@ import static cars.engine.Vector2.vec2;
 public class StudentCarMouse extends StudentCarBase {
     // A variável 'state' foi removida, pois não é necessária para um comportamento fixo.
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+
     public StudentCarMouse(Color cor, double x, double y) {
         super(settings ->
                 settings
@@ -27,33 +30,38 @@ public class StudentCarMouse extends StudentCarBase {
         );
     }
 
+    // O motor sabe calcular esse Seek para muitos carros de uma vez (SteeringKernels)
+    @Override
+    protected BatchBehavior getBatchBehavior() {
+        return BatchBehavior.seekMouse();
+    }
+
     /**
      * 2. MUDANÇA DO MÉTODO: Implementa o método calculateBehaviorForce.
      * Contém APENAS a lógica de Busca (Seek) do Mouse.
      */
     @Override
     public Vector2 calculateBehaviorForce(final World world) {
-        final Vector2 targetPos = world.getMousePos();
-
-        if (targetPos == null) {
-            // Retorna vetor zero, o carro mantém o que estava fazendo
-            return vec2();
+        // Se o motor já calculou a força em lote, é só usar (ele só calcula sem paredes, em linha reta)
+        if (world.getBatchForce(steeringForce) != null) {
+            return steeringForce;
         }
 
         // Lógica de SEEK (Buscar)
 
-        // 1. Calcular o vetor do carro até o alvo (Direção de Busca)
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
+        // 1. Direção do caminho até o mouse, contornando as paredes (flow field compartilhado)
+        if (Double.isNaN(world.getFlowToMouse(desiredVelocity))) {
+            // Retorna vetor zero, o carro mantém o que estava fazendo
+            return steeringForce.set(0, 0);
+        }
 
         // 2. Definir a Velocidade Desejada (Direção * Velocidade Máxima)
-        // Note: Seu código original não usava desiredSpeed no cálculo final, mas sim o maxSpeed.
-        // O método resize faz a mesma coisa: define o tamanho para maxSpeed.
-        desiredVelocity.resize(getMaxSpeed());
+        desiredVelocity.multiply(getMaxSpeed());
 
         // 3. Calcular a Força de Direção (Steering Force)
         // Força = Velocidade Desejada - Velocidade Atual
 
         // Retorna a força bruta de Seek. O StudentCarBase fará a soma com Avoidance e o truncate.
-        return subtract(desiredVelocity, getVelocity());
+        return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
     }
 }
@@ -13,6 +13,11 @@ import static cars.engine.Vector2.*;
 
 public class StudentCarSeek extends StudentCarBase {
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 targetPos = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+
 
     public StudentCarSeek(Color cor, double x, double y) {
         super(settings ->
@@ -32,20 +37,21 @@ public class StudentCarSeek extends StudentCarBase {
         // Obter os vizinhos e verificar se a lista não está vazia
         List<Car> neighbors = world.getNeighbors();
         if (neighbors.isEmpty()) {
-            return vec2();
+            return steeringForce.set(0, 0);
         }
 
      // Pega o Vector2 do ultimo carro na lista e pega a posição
-        final Vector2 targetPos = neighbors.getLast().getPosition();
-        // Posição alvo (carro amarelo) - posição do atual = direção do vetor
-        Vector2 desiredVelocity = subtract(targetPos, getPosition());
+        neighbors.getLast().getPosition(targetPos);
+        // Direção do caminho até o alvo (carro amarelo), contornando as paredes. Todos os carros
+        // Seek perseguem o mesmo carro, então compartilham o mesmo flow field.
+        world.getFlowTo(targetPos.x, targetPos.y, desiredVelocity);
 
-        // resize ajusta o vetor para o tamanho maxSpeed
-        desiredVelocity.resize(getMaxSpeed());
+        // multiply ajusta o vetor unitário para o tamanho maxSpeed
+        desiredVelocity.multiply(getMaxSpeed());
 
 
         // Força de direção = flexa amarela (desiredVelocity) - (Velocidade atual) seta azul (que tá no car)
-        return subtract(desiredVelocity, getVelocity());
+        return steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
     }
 
 
@@ -5,6 +5,7 @@ import cars.engine.Vector2;
 import cars.engine.World;
 
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.random.RandomGenerator;
 
 import static cars.engine.Vector2.*;
@@ -22,6 +23,12 @@ public class StudentCarWander extends StudentCarBase {
 
     private double wanderAngle;
 
+    // Vetores reaproveitados a cada quadro
+    private final Vector2 circleCenter = vec2();
+    private final Vector2 displacement = vec2();
+    private final Vector2 desiredVelocity = vec2();
+    private final Vector2 steeringForce = vec2();
+
     public StudentCarWander(Color cor, double x, double y) {
         super(settings ->
                 settings
@@ -36,37 +43,45 @@ public class StudentCarWander extends StudentCarBase {
     }
 
 
+    // O ângulo do Wander é salvo no checkpoint, para o carro continuar virando para o mesmo lado
+    @Override
+    protected void writeState(ByteBuffer out) {
+        out.putDouble(wanderAngle);
+    }
+
+    @Override
+    protected void readState(ByteBuffer in) {
+        wanderAngle = in.getDouble();
+    }
+
     @Override
     public Vector2 calculateBehaviorForce(final World world) {
 
         // Se estiver parado, anda :P
         if (getSpeed() < 5) {
-            Vector2 initialImpulse = byAngle(wanderAngle).multiply(getMaxSpeed() / 2.0);
+            Vector2 initialImpulse = steeringForce.setAngleSize(wanderAngle, getMaxSpeed() / 2.0);
             return initialImpulse;
         }
 
         // Forma o Vetor que aponta pro centro do circulo
-        Vector2 circleCenter = multiply(getDirection(), WANDER_CIRCLE_DISTANCE);
+        getDirection(circleCenter).multiply(WANDER_CIRCLE_DISTANCE);
 
         //RND é o random que gera um angulo aleatório
         double angleChange = (RND.nextDouble(-1.0, 1.0) * WANDER_ANGLE_CHANGE) * world.getSecs();
         wanderAngle += angleChange;
 
         //Pega um ponto do perimetro (aleatório)
-        Vector2 displacement = byAngle(wanderAngle);
-        displacement.multiply(WANDER_CIRCLE_RADIUS);
-
-        // Calcula a posição final do alvo (para onde ele vai)
-        Vector2 wanderTarget = add(getPosition(), circleCenter, displacement);
+        displacement.setAngleSize(wanderAngle, WANDER_CIRCLE_RADIUS);
 
-        // A força que vai carregar o carrinho até o alvo final calculado ali em cima /\
-        Vector2 desiredVelocity = subtract(wanderTarget, getPosition());
+        // Calcula a posição final do alvo (para onde ele vai) e a força que vai carregar o carrinho até ele.
+        // Como só a direção importa, basta o alvo relativo ao carro: (posição + centro + deslocamento) - posição
+        desiredVelocity.setSum(circleCenter, displacement);
 
         // resize ajusta o vetor para o tamanho maxSpeed;
         desiredVelocity.resize(getMaxSpeed());
 
         // enfim a seta amarela, o resultado de todas da força calculada alí em cima - Velocity da classe CAR
-        Vector2 steeringForce = subtract(desiredVelocity, getVelocity());
+        steeringForce.setDifference(desiredVelocity, getVelocity(steeringForce));
 
         // O StudentCarBase se encarrega da soma com Avoidance e do truncate.
         return steeringForce;